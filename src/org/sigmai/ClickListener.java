@@ -0,0 +1,8 @@
+package org.sigmai;
+
+/*
+ * 点击边栏中的行时通知.
+ * */
+interface ClickListener {
+	void clicked(int line);
+}
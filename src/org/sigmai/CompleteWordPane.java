@@ -1,44 +1,89 @@
 package org.sigmai;
 
-import java.util.TreeSet;
-
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseListener;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.FillLayout;
-import org.eclipse.swt.widgets.List;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
 
+/*
+ * 随笔提示面板.
+ *
+ * 单词显示在一个虚拟表格中, 只有可见的行才会向表格写入文本.
+ * 更新单词列表时, 与上一次列表相同的开头部分被保留, 只有其后的行被清除,
+ * 所以更新的代价与候选单词的个数基本无关.
+ * */
 class CompleteWordPane {
 	
+	private static final String[] EMPTY = new String[0];
+	
 	private Shell shell;
-	private List  list;
+	private Table list;
 	private Font  font;
 	
+	private String[] words = EMPTY;
+	
 	CompleteWordPane(Shell parent) {
 		initContent(parent);
 	}
 	
 	private String result;
 	
-	void resetWordList(TreeSet<String> wordList) {
-		list.removeAll();
-		for (String word : wordList) {
-			list.add(word);
+	void resetWordList(String[] wordList) {
+		int common = 0;
+		int limit  = Math.min(words.length, wordList.length);
+		while (common<limit && words[common].equals(wordList[common])) {
+			common++;
+		}
+		if (words.length != wordList.length) {
+			list.setItemCount(wordList.length);
+		}
+		words = wordList;
+		if (common < wordList.length) {
+			list.clear(common, wordList.length-1);
+		}
+		
+		// 面板已经显示时, 如果选中的单词仍在列表中, 继续选中它.
+		int index = 0;
+		if (result!=null && isVisible()) {
+			for (int i=0; i<wordList.length; i++) {
+				if (wordList[i].equals(result)) {
+					index = i;
+					break;
+				}
+			}
+		}
+		select(index);
+	}
+	
+	private void select(int index) {
+		if (index>=0 && index<words.length) {
+			list.setSelection(index);
+			result = words[index];
+		} else {
+			list.deselectAll();
+			result = null;
 		}
-		list.setSelection(0);
-		result = list.getSelection()[0];
 	}
 
 	private void initContent(Shell parent) {
 		shell = new Shell(parent, SWT.RESIZE | SWT.MODELESS);
 		shell.setLayout(new FillLayout());
 		shell.setSize(380, 270);
-		list = new List(shell, SWT.V_SCROLL|SWT.H_SCROLL|SWT.SINGLE);
+		list = new Table(shell, SWT.VIRTUAL|SWT.V_SCROLL|SWT.SINGLE|SWT.FULL_SELECTION);
 		font = new Font(shell.getDisplay(), "Courier New", 15, SWT.NORMAL);
 		list.setFont(font);
+		list.addListener(SWT.SetData, e->{
+			TableItem item = (TableItem)e.item;
+			int index = e.index;
+			if (index < words.length) {
+				item.setText(words[index]);
+			}
+		});
 	}
 	
 	Point getSize() {
@@ -58,7 +103,8 @@ class CompleteWordPane {
 	}
 	
 	String getSelection() {
-		return list.getSelection()[0];
+		int index = list.getSelectionIndex();
+		return index>=0 && index<words.length ? words[index] : null;
 	}
 
 	void open(int x, int y) {
@@ -92,28 +138,18 @@ class CompleteWordPane {
 	void selectionUp() {
 		int selectIndex = list.getSelectionIndex();
 		if (selectIndex > 0) {
-			list.setSelection(selectIndex-1);
+			select(selectIndex-1);
 		} else {
-			list.setSelection(list.getItemCount()-1);
-		}
-		try {
-			result = list.getSelection()[0];
-		} catch (ArrayIndexOutOfBoundsException e) {
-			result = null;
+			select(words.length-1);
 		}
 	}	
 	
 	void selectionDown() {
 		int selectIndex = list.getSelectionIndex();
-		if (selectIndex < list.getItemCount()-1) {
-			list.setSelection(selectIndex+1);
+		if (selectIndex < words.length-1) {
+			select(selectIndex+1);
 		} else {
-			list.setSelection(0);
-		}
-		try {
-			result = list.getSelection()[0];
-		} catch (ArrayIndexOutOfBoundsException e) {
-			result = null;
+			select(0);
 		}
 	}
 }
@@ -0,0 +1,209 @@
+package org.sigmai;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * 随笔提示的采用记录.
+ *
+ * 记录用户采用的每个候选单词的得分: 每次采用加一, 得分每过 HALF_LIFE 毫秒减半.
+ * 得分表是不可变的, 更新时复制一份新表再发布, 所以查找不加锁也不分配内存,
+ * 可以在后台线程中与更新同时进行. 采用是低频操作, 复制的代价可以忽略.
+ * <br>
+ * 设置记录文件后, 每次采用作为一行 "时间 \t 权重 \t 单词" 追加到文件末尾.
+ * 没有记录文件时的采用暂存在 unsaved 中, 设置记录文件时与文件中的记录合并后写入文件.
+ * 文件在后台线程中读入, 行数远多于单词数时被压缩为每个单词一行.
+ * 文件的读写都在同一个后台线程中按顺序进行, 不阻塞 UI 线程.
+ * */
+final class CompletionHistory {
+	
+	static final CompletionHistory INSTANCE = new CompletionHistory();
+	
+	private static final long HALF_LIFE   = 7L * 24 * 3600 * 1000;
+	private static final int  MAX_ENTRIES = 4096;
+	
+	private static class Entry {
+		final double score;
+		final long   time;
+		
+		Entry(double score, long time) {
+			this.score = score;
+			this.time  = time;
+		}
+		
+		double scoreAt(long now) {
+			return score * Math.pow(0.5, (double)(now-time)/HALF_LIFE);
+		}
+		
+		static Entry combine(Entry a, Entry b) {
+			long time = Math.max(a.time, b.time);
+			return new Entry(a.scoreAt(time)+b.scoreAt(time), time);
+		}
+	}
+	
+	private AtomicReference<Map<String, Entry>> table = new AtomicReference<>(Map.of());
+	
+	private ExecutorService io = Executors.newSingleThreadExecutor(r->{
+		Thread thread = new Thread(r, "SigmaI completion history");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	private volatile Path file;
+	
+	/*
+	 * 没有记录文件时的采用, 设置记录文件时写入文件. 与 file 一起由 this 同步.
+	 * */
+	private HashMap<String, Entry> unsaved = new HashMap<>();
+	
+	private CompletionHistory() {
+	}
+	
+	/*
+	 * 单词在 now 时刻的得分, 没有采用记录时返回 0.
+	 * */
+	double score(String word, long now) {
+		Entry entry = table.get().get(word);
+		return entry==null ? 0 : entry.scoreAt(now);
+	}
+	
+	/*
+	 * 记录一次采用. 没有记录文件时, 记录在设置记录文件时写入.
+	 * */
+	void record(String word) {
+		long now = System.currentTimeMillis();
+		Entry entry = new Entry(1, now);
+		merge(Map.of(word, entry));
+		synchronized (this) {
+			Path path = file;
+			if (path == null) {
+				unsaved.merge(word, entry, Entry::combine);
+			} else {
+				io.execute(()->append(path, now, 1, word));
+			}
+		}
+	}
+	
+	/*
+	 * 设置记录文件, 并在后台线程中读入其中的记录. path 为 null 时不再写入文件.
+	 * 之前没有记录文件时的采用在读入之后写入新文件.
+	 * */
+	synchronized void setFile(Path path) {
+		if (path==null ? file==null : path.equals(file)) return;
+		file = path;
+		if (path != null) {
+			Map<String, Entry> records = unsaved;
+			unsaved = new HashMap<>();
+			io.execute(()->load(path, records));
+		}
+	}
+	
+	private void merge(Map<String, Entry> entries) {
+		long now = System.currentTimeMillis();
+		table.updateAndGet(old->{
+			HashMap<String, Entry> result = new HashMap<>(old);
+			for (var e : entries.entrySet()) {
+				result.merge(e.getKey(), e.getValue(), Entry::combine);
+			}
+			if (result.size() > MAX_ENTRIES) {
+				prune(result, now);
+			}
+			return result;
+		});
+	}
+	
+	/*
+	 * 丢弃得分最低的单词, 使单词数减为 MAX_ENTRIES 的四分之三.
+	 * */
+	private static void prune(HashMap<String, Entry> entries, long now) {
+		double[] scores = new double[entries.size()];
+		int i = 0;
+		for (Entry entry : entries.values()) {
+			scores[i++] = entry.scoreAt(now);
+		}
+		Arrays.sort(scores);
+		double threshold = scores[scores.length - MAX_ENTRIES*3/4];
+		entries.values().removeIf(entry->entry.scoreAt(now) < threshold);
+	}
+	
+	/*
+	 * 读入文件中的记录, 然后写入 unsaved: 设置文件之前的采用, 它们已经在得分表中.
+	 * */
+	private void load(Path path, Map<String, Entry> unsaved) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			lines = List.of();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		HashMap<String, Entry> entries = new HashMap<>();
+		for (String line : lines) {
+			String[] fields = line.split("\t", 3);
+			if (fields.length != 3 || fields[2].isEmpty()) continue;
+			try {
+				long time = Long.parseLong(fields[0]);
+				double weight = Double.parseDouble(fields[1]);
+				entries.merge(fields[2], new Entry(weight, time), Entry::combine);
+			} catch (NumberFormatException e) {
+				// 忽略损坏的行.
+			}
+		}
+		merge(entries);
+		if (lines.size() > 2*entries.size()+256) {
+			for (var e : unsaved.entrySet()) {
+				entries.merge(e.getKey(), e.getValue(), Entry::combine);
+			}
+			compact(path, entries);
+		} else {
+			for (var e : unsaved.entrySet()) {
+				append(path, e.getValue().time, e.getValue().score, e.getKey());
+			}
+		}
+	}
+	
+	/*
+	 * 把文件重写为每个单词一行. 只写入从文件读入的记录和设置文件之前的采用,
+	 * 之后的采用由排在后面的追加写入.
+	 * */
+	private static void compact(Path path, Map<String, Entry> entries) {
+		try {
+			Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+			try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				for (var e : entries.entrySet()) {
+					out.write(e.getValue().time + "\t" + e.getValue().score + "\t" + e.getKey());
+					out.newLine();
+				}
+			}
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void append(Path path, long time, double weight, String word) {
+		try {
+			Path parent = path.toAbsolutePath().getParent();
+			if (parent != null) Files.createDirectories(parent);
+			Files.writeString(path, time + "\t" + weight + "\t" + word + System.lineSeparator(),
+					StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
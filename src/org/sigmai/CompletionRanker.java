@@ -0,0 +1,264 @@
+package org.sigmai;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+
+/*
+ * 随笔提示候选单词的排序.
+ *
+ * 输入的字符按以下方式匹配单词, 匹配质量依次降低:
+ * 前缀(区分大小写), 前缀(不区分大小写), 驼峰(每个字符是单词中某一段的开头, 或者紧接上一个字符),
+ * 子序列(字符按顺序出现在单词中). 单词的首字符必须与输入的首字符相同(不区分大小写),
+ * 所以只需检查前缀索引中以这两个字符开头的两段单词.
+ * <br>
+ * 单词的得分由匹配质量, 在文档中出现的次数, 与 caret 的距离以及被采用的记录(CompletionHistory)决定.
+ * 候选单词进入一个大小为 limit 的最小堆, 只有得分最高的 limit 个单词被保留.
+ * <br>
+ * 排序只使用不可变的前缀索引和可以并发读取的集合, 可以在后台线程中进行. 线程被中断时, 排序提前结束.
+ * */
+class CompletionRanker {
+	
+	/*
+	 * 计算与 caret 距离的文本窗口的半径.
+	 * */
+	static final int PROXIMITY_RADIUS = 2048;
+	
+	private static final int PREFIX       = 1000;
+	private static final int PREFIX_CASE  = 850;
+	private static final int CAMEL_CASE   = 700;
+	private static final int SUBSEQUENCE  = 450;
+	private static final int FREQUENCY    = 60;
+	private static final int PROXIMITY    = 300;
+	private static final int HISTORY      = 200;
+	
+	private static class Candidate {
+		String word;
+		double score;
+		
+		Candidate(String word, double score) {
+			this.word  = word;
+			this.score = score;
+		}
+	}
+	
+	private int limit;
+	private String query;
+	private long now;
+	private PrefixIndex documentWords;
+	private HashMap<String, Integer> distances = new HashMap<>();
+	private HashSet<String> seen = new HashSet<>();
+	private PriorityQueue<Candidate> heap = new PriorityQueue<>(CompletionRanker::compare);
+	
+	CompletionRanker(int limit) {
+		this.limit = limit;
+	}
+	
+	/*
+	 * 开始一次排序.
+	 *
+	 * around 是 caret 附近的文本, caret 是 caret 在其中的位置, caret 处的单词(正在输入的单词)不计入距离.
+	 * */
+	void begin(String query, PrefixIndex documentWords, String around, int caret) {
+		this.query = query;
+		this.now   = System.currentTimeMillis();
+		this.documentWords = documentWords;
+		heap.clear();
+		seen.clear();
+		distances.clear();
+		
+		int index = 0;
+		int len   = around.length();
+		while (index < len) {
+			char c = around.charAt(index);
+			if (Character.isLetter(c) || c=='_') {
+				int start = index;
+				index++;
+				while (index<len && isWordPart(around.charAt(index))) {
+					index++;
+				}
+				if (caret<start || caret>index) {
+					int distance = caret<start ? start-caret : caret-index;
+					distances.merge(around.substring(start, index), distance, Math::min);
+				}
+			} else {
+				index++;
+			}
+		}
+	}
+	
+	/*
+	 * 加入可以并发读取的排序集合中的候选单词.
+	 * */
+	void offer(NavigableSet<String> words) {
+		for (String first : firstChars()) {
+			offerAll(words.subSet(first, true, next(first), false));
+		}
+	}
+	
+	/*
+	 * 加入内存映射的词汇表中的候选单词.
+	 * */
+	void offer(MappedVocabulary words) {
+		for (String first : firstChars()) {
+			offerAll(words.range(first, next(first)));
+		}
+	}
+	
+	/*
+	 * 加入前缀索引中的候选单词.
+	 * */
+	void offer(PrefixIndex words) {
+		for (String first : firstChars()) {
+			offerAll(words.subList(first, next(first)));
+		}
+	}
+	
+	/*
+	 * 结束排序, 返回按得分从高到低排列的单词.
+	 * */
+	String[] finish() {
+		String[] result = new String[heap.size()];
+		for (int i=result.length-1; i>=0; i--) {
+			result[i] = heap.poll().word;
+		}
+		seen.clear();
+		distances.clear();
+		return result;
+	}
+	
+	private String[] firstChars() {
+		char c = query.charAt(0);
+		char lower = Character.toLowerCase(c);
+		char upper = Character.toUpperCase(c);
+		return lower==upper ? new String[] {String.valueOf(c)} :
+			new String[] {String.valueOf(lower), String.valueOf(upper)};
+	}
+	
+	private static String next(String first) {
+		return String.valueOf((char)(first.charAt(0)+1));
+	}
+	
+	private void offerAll(Iterable<String> words) {
+		int n = 0;
+		for (String w : words) {
+			if ((++n&1023)==0 && Thread.currentThread().isInterrupted()) return;
+			if (!seen.add(w)) continue;
+			int count = documentWords.count(w);
+			// 只出现一次并且与输入相同的单词是正在输入的单词本身.
+			if (count<=1 && w.equals(query)) continue;
+			int quality = match(w);
+			if (quality == 0) continue;
+			
+			double score = quality - (w.length()-query.length());
+			score += FREQUENCY * Math.log1p(count);
+			score += HISTORY * Math.log1p(CompletionHistory.INSTANCE.score(w, now));
+			Integer distance = distances.get(w);
+			if (distance != null) {
+				score += PROXIMITY * (1 - (double)distance/PROXIMITY_RADIUS);
+			}
+			Candidate candidate = new Candidate(w, score);
+			if (heap.size() < limit) {
+				heap.add(candidate);
+			} else if (compare(candidate, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(candidate);
+			}
+		}
+	}
+	
+	/*
+	 * 得分低的在前. 得分相同时, 较短的单词以及字母顺序在前的单词较好.
+	 * */
+	private static int compare(Candidate a, Candidate b) {
+		int result = Double.compare(a.score, b.score);
+		if (result != 0) return result;
+		result = Integer.compare(b.word.length(), a.word.length());
+		if (result != 0) return result;
+		return b.word.compareTo(a.word);
+	}
+	
+	/*
+	 * 计算匹配质量, 不匹配时返回 0.
+	 * */
+	private int match(String w) {
+		if (w.startsWith(query)) {
+			return PREFIX;
+		}
+		if (w.regionMatches(true, 0, query, 0, query.length())) {
+			return PREFIX_CASE;
+		}
+		if (matchCamelCase(w)) {
+			return CAMEL_CASE;
+		}
+		return matchSubsequence(w);
+	}
+	
+	/*
+	 * 每个输入字符匹配单词中紧接上一个匹配字符的字符, 或者下一段的开头.
+	 * */
+	private boolean matchCamelCase(String w) {
+		int qi = 0;
+		int wi = 0;
+		while (qi<query.length() && wi<w.length()) {
+			char q = query.charAt(qi);
+			if (qi>0 && equalsIgnoreCase(w.charAt(wi), q)) {
+				qi++;
+				wi++;
+				continue;
+			}
+			int hump = qi==0 ? 0 : nextHump(w, wi);
+			if (hump<w.length() && equalsIgnoreCase(w.charAt(hump), q)) {
+				qi++;
+				wi = hump+1;
+			} else {
+				return false;
+			}
+		}
+		return qi == query.length();
+	}
+	
+	/*
+	 * 子序列匹配, 得分随匹配字符之间的间隔减少.
+	 * */
+	private int matchSubsequence(String w) {
+		int gaps = 0;
+		int wi = 0;
+		for (int qi=0; qi<query.length(); qi++) {
+			char q = query.charAt(qi);
+			int start = wi;
+			while (wi<w.length() && !equalsIgnoreCase(w.charAt(wi), q)) {
+				wi++;
+			}
+			if (wi == w.length()) return 0;
+			gaps += wi - start;
+			wi++;
+		}
+		return Math.max(SUBSEQUENCE - 20*gaps, SUBSEQUENCE/3);
+	}
+	
+	/*
+	 * 从 from 开始的下一段的开头: 小写字母之后的大写字母, '_' 之后的字符, 字母之后的数字.
+	 * */
+	private static int nextHump(String w, int from) {
+		for (int i=Math.max(from, 1); i<w.length(); i++) {
+			char prev = w.charAt(i-1);
+			char c    = w.charAt(i);
+			if ((Character.isUpperCase(c) && !Character.isUpperCase(prev))
+					|| (prev=='_' && c!='_')
+					|| (Character.isDigit(c) && !Character.isDigit(prev))) {
+				return i;
+			}
+		}
+		return w.length();
+	}
+	
+	private static boolean equalsIgnoreCase(char a, char b) {
+		return a==b || Character.toLowerCase(a)==Character.toLowerCase(b);
+	}
+	
+	private static boolean isWordPart(char c) {
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+}
@@ -0,0 +1,172 @@
+package org.sigmai;
+
+import java.util.TreeMap;
+
+import org.eclipse.swt.custom.StyledTextContent;
+
+/*
+ * 文档单词索引.
+ *
+ * 记录文档中每个单词(以字母或 '_' 开头, 由字母, 数字和 '_' 组成)出现的次数,
+ * 单词的最后一次出现被删除时, 单词从索引中移除.
+ * <br>
+ * 单词不跨行, 所以修改时只需在修改前移除被修改行中的单词, 修改后加入这些行的新单词,
+ * 耗时与被修改的行数成正比, 而与文档长度无关.
+ * */
+class DocumentWordIndex {
+	
+	private TreeMap<String, int[]> counts = new TreeMap<>();
+	
+	/*
+	 * 不为 null 时, 单词在文档中出现或消失时通知共享的符号字典.
+	 * */
+	private SymbolDictionary shared;
+	
+	/*
+	 * 加入或退出共享的符号字典.
+	 * */
+	void setShared(SymbolDictionary dictionary) {
+		if (shared == dictionary) return;
+		if (shared != null) {
+			for (String word : counts.keySet()) {
+				shared.update(word, -1);
+			}
+		}
+		shared = dictionary;
+		if (shared != null) {
+			for (String word : counts.keySet()) {
+				shared.update(word, 1);
+			}
+		}
+	}
+	
+	/*
+	 * 修改前记录的被修改行的区间, 修改后 end 加上长度的变化.
+	 * */
+	private int changeStart;
+	private int changeEnd;
+	
+	/*
+	 * 最近一次重建的数组快照, 以及之后改变了出现次数的单词和当前的次数 (0 表示已被移除).
+	 * */
+	private PrefixIndex base;
+	private TreeMap<String, Integer> changes = new TreeMap<>();
+	
+	/*
+	 * 最近一次创建的快照, 索引改变后失效.
+	 * */
+	private PrefixIndex snapshot;
+	
+	/*
+	 * 改变的单词数超过 base 单词数的 1/16 (至少 256 个) 时才重建 base.
+	 * */
+	private static final int MIN_REBUILD_CHANGES = 256;
+	
+	/*
+	 * 获取索引的不可变快照, 用于在后台线程中查找.
+	 * 
+	 * 快照由 base 和改变的单词的副本组成, 创建快照的耗时与改变的单词数成正比;
+	 * 只有改变积累到 base 的一定比例时才重建 base, 所以每次修改平均只引起常数的重建代价.
+	 * */
+	PrefixIndex snapshot() {
+		if (snapshot == null) {
+			if (base==null || changes.size()>Math.max(MIN_REBUILD_CHANGES, base.size()>>4)) {
+				String[] words = new String[counts.size()];
+				int[] occurrences = new int[words.length];
+				int i = 0;
+				for (var entry : counts.entrySet()) {
+					words[i] = entry.getKey();
+					occurrences[i] = entry.getValue()[0];
+					i++;
+				}
+				base = PrefixIndex.ofSorted(words, occurrences);
+				changes.clear();
+				snapshot = base;
+			} else {
+				snapshot = base.withChanges(new TreeMap<>(changes));
+			}
+		}
+		return snapshot;
+	}
+	
+	int count(String word) {
+		int[] count = counts.get(word);
+		return count==null ? 0 : count[0];
+	}
+	
+	void clear() {
+		if (shared != null) {
+			for (String word : counts.keySet()) {
+				shared.update(word, -1);
+			}
+		}
+		counts.clear();
+		base = null;
+		changes.clear();
+		snapshot = null;
+	}
+	
+	/*
+	 * 重建索引.
+	 * */
+	void rebuild(StyledTextContent content) {
+		clear();
+		scan(content.getTextRange(0, content.getCharCount()), 1);
+	}
+	
+	/*
+	 * 文本修改前调用: 移除被修改行中的单词.
+	 * */
+	void textChanging(StyledTextContent content, int start, int replaceCharCount, int newCharCount) {
+		changeStart = content.getOffsetAtLine(content.getLineAtOffset(start));
+		int endLine = content.getLineAtOffset(start+replaceCharCount);
+		changeEnd = endLine+1<content.getLineCount() ?
+				content.getOffsetAtLine(endLine+1) : content.getCharCount();
+		scan(content.getTextRange(changeStart, changeEnd-changeStart), -1);
+		changeEnd += newCharCount - replaceCharCount;
+	}
+	
+	/*
+	 * 文本修改后调用: 加入被修改行中的单词.
+	 * */
+	void textChanged(StyledTextContent content) {
+		scan(content.getTextRange(changeStart, changeEnd-changeStart), 1);
+	}
+	
+	private void scan(String text, int delta) {
+		int index = 0;
+		int len   = text.length();
+		while (index < len) {
+			char c = text.charAt(index);
+			if (Character.isLetter(c) || c=='_') {
+				int start = index;
+				index++;
+				while (index<len &&
+						(Character.isLetterOrDigit(text.charAt(index))||text.charAt(index)=='_')) {
+					index++;
+				}
+				update(text.substring(start, index), delta);
+			} else {
+				index++;
+			}
+		}
+	}
+	
+	private void update(String word, int delta) {
+		snapshot = null;
+		int[] count = counts.get(word);
+		if (count == null) {
+			if (delta > 0) {
+				counts.put(word, new int[] {delta});
+				if (shared != null) shared.update(word, 1);
+				if (base != null) changes.put(word, delta);
+			}
+		} else if ((count[0] += delta) <= 0) {
+			counts.remove(word);
+			if (shared != null) shared.update(word, -1);
+			if (base != null) changes.put(word, 0);
+		} else if (base != null) {
+			changes.put(word, count[0]);
+		}
+	}
+}
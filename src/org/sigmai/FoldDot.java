@@ -2,11 +2,27 @@ package org.sigmai;
 
 class FoldDot implements Comparable<FoldDot> {
 	boolean folded;
+	
+	/*
+	 * 区域在文档中的位置.
+	 * */
 	int startOffset;
 	int endOffset;
+	
+	/*
+	 * 区域的第一行和最后一行, 为编辑区域中显示的行.
+	 * */
 	int startLine;
 	int endLine;
-	String content;
+	
+	/*
+	 * 折叠后被隐藏的文本在文档中的位置, 长度, 第一行和行数.
+	 * 被隐藏的文本从一行的开头开始, 到一行的开头结束, 文本本身仍然留在文档中.
+	 * */
+	int hiddenStart;
+	int hiddenLength;
+	int hiddenLine;
+	int hiddenLineCount;
 	
 	@Override
 	public int compareTo(FoldDot o) {
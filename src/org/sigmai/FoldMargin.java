@@ -1,6 +1,8 @@
 package org.sigmai;
 
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 
 import org.eclipse.swt.SWT;
@@ -20,38 +22,97 @@ class FoldMargin extends Canvas {
 		foldDots   = new TreeMap<>();
 		foldedDots = new TreeMap<>();
 		addPaintListener(e->{
-			drawDots(e.gc);
+			drawDots(e.gc, e.y, e.height);
+		});
+		addListener(SWT.MouseDown, e->{
+			if (clickListener!=null && inc>0) {
+				clickListener.clicked((e.y + topPixel) / inc);
+			}
 		});
 	}
 	
+	private ClickListener clickListener;
+	
+	/*
+	 * 点击折叠标记所在的行时通知 listener.
+	 * */
+	void setClickListener(ClickListener listener) {
+		checkWidget();
+		clickListener = listener;
+	}
+	
 	void cleanDots() {
 		checkWidget();
 		foldDots.clear();
+		parents = null;
 	}
 	
+	/*
+	 * 同一行只保留第一个被加入的折叠标记.
+	 * */
 	void addFoldDots(FoldDot dot) {
 		checkWidget();
-		foldDots.put(dot.startLine, dot);
+		foldDots.putIfAbsent(dot.startLine, dot);
+		parents = null;
 	}
 
 	private static final int base = 10;
 	
-	private void drawDots(GC gc) {
+	/*
+	 * 每个折叠标记开始时仍未结束的最近的折叠标记, 用于查找从可见区域之上开始并延伸到可见区域中的折叠标记.
+	 * 绘制时才建立, 折叠标记改变时失效.
+	 * */
+	private HashMap<FoldDot, FoldDot> parents;
+	
+	private void buildParents() {
+		parents = new HashMap<>();
+		List<FoldDot> stack = new ArrayList<>();
+		for (FoldDot dot : foldDots.values()) {
+			while (!stack.isEmpty() && stack.get(stack.size()-1).endLine<dot.startLine) {
+				stack.remove(stack.size()-1);
+			}
+			if (!stack.isEmpty()) {
+				parents.put(dot, stack.get(stack.size()-1));
+			}
+			stack.add(dot);
+		}
+	}
+	
+	/*
+	 * 只绘制与 [y, y+height) 相交的折叠标记: 开始行在这个范围内的标记,
+	 * 以及从范围之上开始并延伸到范围中的标记.
+	 * */
+	private void drawDots(GC gc, int y, int height) {
 		checkWidget();
 		Point size = getSize();
-		gc.fillRectangle(0, 0, size.x, size.y);
-		Set<Integer> dottedLines = foldDots.keySet();
-		for (var l : dottedLines) {
-			FoldDot dot = foldDots.get(l);
-			int y = base + dot.startLine * inc - topPixel;
-			drawDot(gc, y, dot);
+		gc.fillRectangle(0, y, size.x, height);
+		if (inc <= 0 || foldDots.isEmpty()) {
+			return;
+		}
+		int firstLine = Math.max((y + topPixel - base - 11) / inc, 0);
+		int lastLine  = (y + height + topPixel - base) / inc;
+		var visible = foldDots.subMap(firstLine, true, lastLine, true).values();
+		
+		if (parents == null) {
+			buildParents();
 		}
-		for (var l : dottedLines) {
-			FoldDot dot = foldDots.get(l);
-			int y = base + dot.startLine * inc - topPixel;
-			gc.fillRectangle(1, y, 10, 10);
-			gc.drawRectangle(1, y, 10, 10);
-			gc.drawLine(3, y+5, 8, y+5);
+		var above = foldDots.lowerEntry(firstLine);
+		for (FoldDot dot = above==null ? null : above.getValue(); dot != null; dot = parents.get(dot)) {
+			if (!dot.folded && dot.endLine >= firstLine) {
+				drawDot(gc, base + dot.startLine * inc - topPixel, dot);
+			}
+		}
+		for (FoldDot dot : visible) {
+			drawDot(gc, base + dot.startLine * inc - topPixel, dot);
+		}
+		for (FoldDot dot : visible) {
+			int top = base + dot.startLine * inc - topPixel;
+			gc.fillRectangle(1, top, 10, 10);
+			gc.drawRectangle(1, top, 10, 10);
+			gc.drawLine(3, top+5, 8, top+5);
+			if (dot.folded) {
+				gc.drawLine(6, top+2, 6, top+8);
+			}
 		}
 	}
 
@@ -77,11 +138,20 @@ class FoldMargin extends Canvas {
 		}
 	}
 	
+	/*
+	 * 滚动时复制仍然可见的像素, 只重绘新露出的部分.
+	 * */
 	void setTopPixel(int topPixel) {
 		checkWidget();
 		if (this.topPixel != topPixel) {
+			int delta = this.topPixel - topPixel;
 			this.topPixel = topPixel;
-			this.redraw();
+			Point size = getSize();
+			if (Math.abs(delta) < size.y) {
+				scroll(0, delta, 0, 0, size.x, size.y, false);
+			} else {
+				this.redraw();
+			}
 		}
 	} 
 }
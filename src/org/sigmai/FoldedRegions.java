@@ -0,0 +1,258 @@
+package org.sigmai;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * 被折叠的区域, 以被隐藏的文本在文档中的位置排序.
+ *
+ * 编辑区域显示的是文档的投影: 文档去掉被隐藏的文本. 被隐藏的文本总是若干整行,
+ * 它在编辑区域中的位置 (即它之后的第一个可见字符的位置) 总是一行的开头.
+ * <br>
+ * 位置和行号的换算使用按顺序排列的数组和二分查找, 数组在区域改变后第一次换算时重建.
+ * */
+class FoldedRegions {
+	
+	private TreeMap<Integer, FoldDot> dots = new TreeMap<>();
+	private int hiddenLength;
+	private int hiddenLineCount;
+	
+	/*
+	 * 换算用的数组, 下标为区域的顺序.
+	 * hiddenChars[i] 和 hiddenLines[i] 是前 i+1 个区域被隐藏的字符数和行数之和,
+	 * viewOffsets[i] 和 viewLines[i] 是第 i 个区域在编辑区域中的位置和行.
+	 * */
+	private FoldDot[] sorted;
+	private int[] starts;
+	private int[] lines;
+	private int[] hiddenChars;
+	private int[] hiddenLines;
+	private int[] viewOffsets;
+	private int[] viewLines;
+	
+	boolean isEmpty() {
+		return dots.isEmpty();
+	}
+	
+	Collection<FoldDot> dots() {
+		return dots.values();
+	}
+	
+	/*
+	 * 被隐藏的文本的总长度.
+	 * */
+	int hiddenLength() {
+		return hiddenLength;
+	}
+	
+	/*
+	 * 被隐藏的总行数.
+	 * */
+	int hiddenLineCount() {
+		return hiddenLineCount;
+	}
+	
+	/*
+	 * 加入折叠区域, 区域不能与已有的区域重叠.
+	 * */
+	void add(FoldDot dot) {
+		dots.put(dot.hiddenStart, dot);
+		dot.folded = true;
+		hiddenLength += dot.hiddenLength;
+		hiddenLineCount += dot.hiddenLineCount;
+		sorted = null;
+	}
+	
+	void remove(FoldDot dot) {
+		if (dots.remove(dot.hiddenStart, dot)) {
+			dot.folded = false;
+			hiddenLength -= dot.hiddenLength;
+			hiddenLineCount -= dot.hiddenLineCount;
+			sorted = null;
+		}
+	}
+	
+	void clear() {
+		for (FoldDot dot : dots.values()) {
+			dot.folded = false;
+		}
+		dots.clear();
+		hiddenLength = 0;
+		hiddenLineCount = 0;
+		sorted = null;
+	}
+	
+	/*
+	 * 被隐藏的文本位于 (start, end) 之内的区域.
+	 * */
+	Collection<FoldDot> inside(int start, int end) {
+		if (start >= end) return List.of();
+		return dots.subMap(start, false, end, false).values();
+	}
+	
+	/*
+	 * 被隐藏的文本与 [start, end] 相交, 但不在 (start, end) 之内的区域.
+	 * 修改 [start, end) 会把这些区域切开, 或者使被隐藏的文本不再从一行的开头开始.
+	 * */
+	List<FoldDot> touching(int start, int end) {
+		List<FoldDot> result = new ArrayList<>();
+		for (FoldDot dot : dots.headMap(end, true).descendingMap().values()) {
+			if (dot.hiddenStart+dot.hiddenLength <= start) break;
+			if (start<dot.hiddenStart && dot.hiddenStart+dot.hiddenLength<=end) continue;
+			result.add(dot);
+		}
+		return result;
+	}
+	
+	/*
+	 * 被隐藏的文本与 [start, end) 相交的区域; start 等于 end 时为包含 start 的区域.
+	 * */
+	List<FoldDot> intersecting(int start, int end) {
+		end = Math.max(end, start+1);
+		List<FoldDot> result = new ArrayList<>();
+		for (FoldDot dot : dots.headMap(end, false).descendingMap().values()) {
+			if (dot.hiddenStart+dot.hiddenLength <= start) break;
+			result.add(dot);
+		}
+		return result;
+	}
+	
+	/*
+	 * 文档的 [start, start+replaceCharCount) 被替换后调用: 删除被替换的文本中的区域, 移动之后的区域.
+	 * 与被替换的文本相交的其它区域必须已被移除.
+	 * */
+	void textChanged(int start, int replaceCharCount, int newCharCount, int replaceLineCount, int newLineCount) {
+		if (dots.isEmpty()) return;
+		int end = start + replaceCharCount;
+		var inside = dots.subMap(start, false, end, false);
+		for (FoldDot dot : inside.values()) {
+			dot.folded = false;
+			hiddenLength -= dot.hiddenLength;
+			hiddenLineCount -= dot.hiddenLineCount;
+		}
+		inside.clear();
+		int delta = newCharCount - replaceCharCount;
+		int lineDelta = newLineCount - replaceLineCount;
+		if (delta != 0 || lineDelta != 0) {
+			var tail = dots.tailMap(end, false);
+			List<FoldDot> moved = new ArrayList<>(tail.values());
+			tail.clear();
+			for (FoldDot dot : moved) {
+				dot.hiddenStart += delta;
+				dot.hiddenLine  += lineDelta;
+				dot.startOffset += delta;
+				dot.endOffset   += delta;
+				dots.put(dot.hiddenStart, dot);
+			}
+		}
+		sorted = null;
+	}
+	
+	/*
+	 * 文档中的位置对应的编辑区域中的位置. 被隐藏的位置对应被隐藏的文本在编辑区域中的位置.
+	 * */
+	int toViewOffset(int offset) {
+		if (dots.isEmpty()) return offset;
+		build();
+		int i = lastBefore(starts, offset);
+		if (i < 0) return offset;
+		int hidden = (i==0 ? 0 : hiddenChars[i-1]) + Math.min(offset-starts[i], sorted[i].hiddenLength);
+		return offset - hidden;
+	}
+	
+	/*
+	 * 编辑区域中的位置对应的文档位置. 位于被隐藏的文本处时, 对应被隐藏的文本之后的字符.
+	 * */
+	int toDocumentOffset(int offset) {
+		if (dots.isEmpty()) return offset;
+		build();
+		int i = lastBefore(viewOffsets, offset+1);
+		return i<0 ? offset : offset+hiddenChars[i];
+	}
+	
+	/*
+	 * 编辑区域中作为范围结尾的位置对应的文档位置. 位于被隐藏的文本处时, 对应被隐藏的文本之前的字符.
+	 * */
+	int toDocumentEnd(int offset) {
+		if (dots.isEmpty()) return offset;
+		build();
+		int i = lastBefore(viewOffsets, offset);
+		return i<0 ? offset : offset+hiddenChars[i];
+	}
+	
+	/*
+	 * 文档中的行对应的编辑区域中的行. 被隐藏的行对应被隐藏的文本之后的行.
+	 * */
+	int toViewLine(int line) {
+		if (dots.isEmpty()) return line;
+		build();
+		int i = lastBefore(lines, line);
+		if (i < 0) return line;
+		int hidden = (i==0 ? 0 : hiddenLines[i-1]) + Math.min(line-lines[i], sorted[i].hiddenLineCount);
+		return line - hidden;
+	}
+	
+	/*
+	 * 编辑区域中的行对应的文档中的行.
+	 * */
+	int toDocumentLine(int line) {
+		if (dots.isEmpty()) return line;
+		build();
+		int i = lastBefore(viewLines, line+1);
+		return i<0 ? line : line+hiddenLines[i];
+	}
+	
+	/*
+	 * 文档中的位置是否被隐藏.
+	 * */
+	boolean isHidden(int offset) {
+		if (dots.isEmpty()) return false;
+		build();
+		int i = lastBefore(starts, offset+1);
+		return i>=0 && offset<starts[i]+sorted[i].hiddenLength;
+	}
+	
+	private void build() {
+		if (sorted != null) return;
+		int n = dots.size();
+		sorted = dots.values().toArray(new FoldDot[n]);
+		starts = new int[n];
+		lines  = new int[n];
+		hiddenChars = new int[n];
+		hiddenLines = new int[n];
+		viewOffsets = new int[n];
+		viewLines   = new int[n];
+		int chars = 0;
+		int count = 0;
+		for (int i=0; i<n; i++) {
+			FoldDot dot = sorted[i];
+			starts[i] = dot.hiddenStart;
+			lines[i]  = dot.hiddenLine;
+			viewOffsets[i] = dot.hiddenStart - chars;
+			viewLines[i]   = dot.hiddenLine - count;
+			chars += dot.hiddenLength;
+			count += dot.hiddenLineCount;
+			hiddenChars[i] = chars;
+			hiddenLines[i] = count;
+		}
+	}
+	
+	/*
+	 * 小于 key 的最后一个元素的下标, 没有时返回 -1.
+	 * */
+	private static int lastBefore(int[] array, int key) {
+		int low  = 0;
+		int high = array.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (array[mid] < key) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low-1;
+	}
+}
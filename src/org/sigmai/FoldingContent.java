@@ -0,0 +1,294 @@
+package org.sigmai;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+
+/*
+ * 编辑区域的内容: 文档去掉被折叠隐藏的行之后的投影.
+ *
+ * 折叠和展开只改变投影, 不修改文档, 只通知加在投影上的监听器 (即编辑区域本身),
+ * 所以不产生 Modify, ExtendedModify 事件, 也不产生文档的 TextChange 事件.
+ * <br>
+ * 对投影的修改转换为对文档的修改. 文档被修改时 (不论修改来自编辑区域还是直接修改文档),
+ * 被修改的文本内部的折叠区域随文本一起被删除, 之后的区域随文本移动;
+ * 被修改切开, 或者修改后不再从一行开头开始的折叠区域先被展开.
+ * */
+class FoldingContent implements StyledTextContent, TextChangeListener {
+	
+	private StyledTextContent document;
+	private FoldedRegions regions = new FoldedRegions();
+	private List<TextChangeListener> listeners = new ArrayList<>();
+	private List<TextChangeListener> documentListeners = new ArrayList<>();
+	
+	/*
+	 * 正在进行的文档修改.
+	 * */
+	private int changeStart;
+	private int changeReplaceCharCount;
+	private int changeNewCharCount;
+	private int changeReplaceLineCount;
+	private int changeNewLineCount;
+	
+	FoldingContent(StyledTextContent document) {
+		this.document = document;
+		document.addTextChangeListener(this);
+	}
+	
+	StyledTextContent getDocument() {
+		return document;
+	}
+	
+	/*
+	 * 更换文档, 全部折叠区域被丢弃, 用 addDocumentListener() 加入的监听器转移到新文档上.
+	 * */
+	void setDocument(StyledTextContent document) {
+		this.document.removeTextChangeListener(this);
+		for (TextChangeListener listener : documentListeners) {
+			this.document.removeTextChangeListener(listener);
+		}
+		regions.clear();
+		this.document = document;
+		document.addTextChangeListener(this);
+		for (TextChangeListener listener : documentListeners) {
+			document.addTextChangeListener(listener);
+		}
+	}
+	
+	/*
+	 * 监听文档的修改, 事件使用文档的坐标. 更换文档后监听器仍然有效.
+	 * */
+	void addDocumentListener(TextChangeListener listener) {
+		documentListeners.add(listener);
+		document.addTextChangeListener(listener);
+	}
+	
+	Collection<FoldDot> dots() {
+		return regions.dots();
+	}
+	
+	int toViewOffset(int offset) {
+		return regions.toViewOffset(offset);
+	}
+	
+	int toDocumentOffset(int offset) {
+		return regions.toDocumentOffset(offset);
+	}
+	
+	int toDocumentEnd(int offset) {
+		return regions.toDocumentEnd(offset);
+	}
+	
+	int toViewLine(int line) {
+		return regions.toViewLine(line);
+	}
+	
+	int toDocumentLine(int line) {
+		return regions.toDocumentLine(line);
+	}
+	
+	boolean isHidden(int offset) {
+		return regions.isHidden(offset);
+	}
+	
+	/*
+	 * 被隐藏的文本与文档的 [start, end) 相交的区域.
+	 * */
+	List<FoldDot> intersecting(int start, int end) {
+		return regions.intersecting(start, end);
+	}
+	
+	/*
+	 * 编辑区域的 [start, end) 在文档中的范围, 包括其中被隐藏的文本.
+	 * */
+	int[] toDocumentRange(int start, int end) {
+		if (start == end) {
+			int offset = regions.toDocumentOffset(start);
+			return new int[] {offset, offset};
+		}
+		return new int[] {regions.toDocumentOffset(start), regions.toDocumentEnd(end)};
+	}
+	
+	/*
+	 * 隐藏 dot 的 hiddenStart, hiddenLength, hiddenLine, hiddenLineCount 指定的文本.
+	 * 其中已折叠的区域并入 dot, 与它部分重叠的区域先被展开.
+	 * */
+	void fold(FoldDot dot) {
+		int start = dot.hiddenStart;
+		int end   = start + dot.hiddenLength;
+		for (FoldDot other : regions.touching(start, end)) {
+			if (other.hiddenStart<start || other.hiddenStart+other.hiddenLength>end) {
+				unfold(other);
+			}
+		}
+		int chars = dot.hiddenLength;
+		int lines = dot.hiddenLineCount;
+		List<FoldDot> inner = new ArrayList<>(regions.intersecting(start, end));
+		for (FoldDot other : inner) {
+			chars -= other.hiddenLength;
+			lines -= other.hiddenLineCount;
+		}
+		TextChangingEvent event = new TextChangingEvent(this);
+		event.start = regions.toViewOffset(start);
+		event.newText = "";
+		event.replaceCharCount = chars;
+		event.replaceLineCount = lines;
+		fireTextChanging(event);
+		for (FoldDot other : inner) {
+			regions.remove(other);
+		}
+		regions.add(dot);
+		fireTextChanged();
+	}
+	
+	/*
+	 * 显示 dot 隐藏的文本, 返回它在编辑区域中的位置.
+	 * */
+	int unfold(FoldDot dot) {
+		TextChangingEvent event = new TextChangingEvent(this);
+		event.start = regions.toViewOffset(dot.hiddenStart);
+		event.newText = document.getTextRange(dot.hiddenStart, dot.hiddenLength);
+		event.newCharCount = dot.hiddenLength;
+		event.newLineCount = dot.hiddenLineCount;
+		fireTextChanging(event);
+		regions.remove(dot);
+		fireTextChanged();
+		return event.start;
+	}
+	
+	private void fireTextChanging(TextChangingEvent event) {
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textChanging(event);
+		}
+	}
+	
+	private void fireTextChanged() {
+		TextChangedEvent event = new TextChangedEvent(this);
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textChanged(event);
+		}
+	}
+	
+	@Override
+	public void textChanging(TextChangingEvent event) {
+		int start = event.start;
+		int end   = start + event.replaceCharCount;
+		for (FoldDot dot : regions.touching(start, end)) {
+			unfold(dot);
+		}
+		changeStart = start;
+		changeReplaceCharCount = event.replaceCharCount;
+		changeNewCharCount = event.newCharCount;
+		changeReplaceLineCount = event.replaceLineCount;
+		changeNewLineCount = event.newLineCount;
+		
+		TextChangingEvent viewEvent = new TextChangingEvent(this);
+		viewEvent.start = regions.toViewOffset(start);
+		viewEvent.newText = event.newText;
+		viewEvent.replaceCharCount = event.replaceCharCount;
+		viewEvent.replaceLineCount = event.replaceLineCount;
+		viewEvent.newCharCount = event.newCharCount;
+		viewEvent.newLineCount = event.newLineCount;
+		for (FoldDot dot : regions.inside(start, end)) {
+			viewEvent.replaceCharCount -= dot.hiddenLength;
+			viewEvent.replaceLineCount -= dot.hiddenLineCount;
+		}
+		fireTextChanging(viewEvent);
+	}
+	
+	@Override
+	public void textChanged(TextChangedEvent event) {
+		regions.textChanged(changeStart, changeReplaceCharCount, changeNewCharCount,
+				changeReplaceLineCount, changeNewLineCount);
+		fireTextChanged();
+	}
+	
+	@Override
+	public void textSet(TextChangedEvent event) {
+		regions.clear();
+		TextChangedEvent viewEvent = new TextChangedEvent(this);
+		for (TextChangeListener listener : new ArrayList<>(listeners)) {
+			listener.textSet(viewEvent);
+		}
+	}
+	
+	@Override
+	public void addTextChangeListener(TextChangeListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.add(listener);
+	}
+	
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException();
+		}
+		listeners.remove(listener);
+	}
+	
+	@Override
+	public int getCharCount() {
+		return document.getCharCount() - regions.hiddenLength();
+	}
+	
+	@Override
+	public String getLine(int lineIndex) {
+		return document.getLine(regions.toDocumentLine(lineIndex));
+	}
+	
+	@Override
+	public int getLineAtOffset(int offset) {
+		return regions.toViewLine(document.getLineAtOffset(regions.toDocumentOffset(offset)));
+	}
+	
+	@Override
+	public int getLineCount() {
+		return document.getLineCount() - regions.hiddenLineCount();
+	}
+	
+	@Override
+	public String getLineDelimiter() {
+		return document.getLineDelimiter();
+	}
+	
+	@Override
+	public int getOffsetAtLine(int lineIndex) {
+		return regions.toViewOffset(document.getOffsetAtLine(regions.toDocumentLine(lineIndex)));
+	}
+	
+	@Override
+	public String getTextRange(int start, int length) {
+		if (length == 0) return "";
+		int end = regions.toDocumentEnd(start+length);
+		start = regions.toDocumentOffset(start);
+		if (end-start == length) {
+			return document.getTextRange(start, length);
+		}
+		StringBuilder sb = new StringBuilder(length);
+		int last = start;
+		for (FoldDot dot : regions.inside(start, end)) {
+			sb.append(document.getTextRange(last, dot.hiddenStart-last));
+			last = dot.hiddenStart + dot.hiddenLength;
+		}
+		sb.append(document.getTextRange(last, end-last));
+		return sb.toString();
+	}
+	
+	@Override
+	public void replaceTextRange(int start, int replaceLength, String text) {
+		int[] range = toDocumentRange(start, start+replaceLength);
+		document.replaceTextRange(range[0], range[1]-range[0], text);
+	}
+	
+	@Override
+	public void setText(String text) {
+		document.setText(text);
+	}
+}
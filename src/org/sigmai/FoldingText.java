@@ -0,0 +1,106 @@
+package org.sigmai;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.dnd.Clipboard;
+import org.eclipse.swt.dnd.DND;
+import org.eclipse.swt.dnd.TextTransfer;
+import org.eclipse.swt.dnd.Transfer;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Composite;
+
+/*
+ * 显示 FoldingContent 的编辑区域.
+ *
+ * 排版, 绘制以及位置, 行号, 选择, getCharCount(), getTextRange() 等都针对编辑区域中显示的文本;
+ * getContent() 返回的是文档, getText() 返回文档的全部文本,
+ * 复制和剪切包括选择区域中被隐藏的文本.
+ * */
+class FoldingText extends StyledText {
+	
+	private FoldingContent folding;
+	private Clipboard clipboard;
+	
+	FoldingText(Composite parent, int style) {
+		super(parent, style);
+		folding = new FoldingContent(super.getContent());
+		super.setContent(folding);
+		clipboard = new Clipboard(getDisplay());
+		addListener(SWT.Dispose, e->clipboard.dispose());
+	}
+	
+	@Override
+	protected void checkSubclass() {
+	}
+	
+	FoldingContent getFoldingContent() {
+		return folding;
+	}
+	
+	@Override
+	public StyledTextContent getContent() {
+		checkWidget();
+		return folding==null ? super.getContent() : folding.getDocument();
+	}
+	
+	@Override
+	public void setContent(StyledTextContent newContent) {
+		checkWidget();
+		if (folding==null || newContent==null) {
+			super.setContent(newContent);
+			return;
+		}
+		folding.setDocument(newContent);
+		super.setContent(folding);
+	}
+	
+	@Override
+	public String getText() {
+		checkWidget();
+		StyledTextContent document = folding.getDocument();
+		return document.getTextRange(0, document.getCharCount());
+	}
+	
+	@Override
+	public void copy() {
+		checkWidget();
+		copy(DND.CLIPBOARD);
+	}
+	
+	@Override
+	public void copy(int clipboardType) {
+		checkWidget();
+		if (!copyDocumentText(clipboardType)) {
+			super.copy(clipboardType);
+		}
+	}
+	
+	@Override
+	public void cut() {
+		checkWidget();
+		if (copyDocumentText(DND.CLIPBOARD)) {
+			insert("");
+		} else {
+			super.cut();
+		}
+	}
+	
+	/*
+	 * 选择区域中有被隐藏的文本时, 把选择区域在文档中的文本放入剪贴板, 返回真.
+	 * 否则返回假, 由 StyledText 复制.
+	 * */
+	private boolean copyDocumentText(int clipboardType) {
+		Point selection = getSelection();
+		if (getBlockSelection() || selection.x == selection.y) {
+			return false;
+		}
+		int[] range = folding.toDocumentRange(selection.x, selection.y);
+		if (range[1]-range[0] == selection.y-selection.x) {
+			return false;
+		}
+		String text = folding.getDocument().getTextRange(range[0], range[1]-range[0]);
+		clipboard.setContents(new Object[] {text}, new Transfer[] {TextTransfer.getInstance()}, clipboardType);
+		return true;
+	}
+}
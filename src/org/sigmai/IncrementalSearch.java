@@ -0,0 +1,294 @@
+package org.sigmai;
+
+import java.util.ArrayList;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTError;
+import org.eclipse.swt.custom.StyledText;
+
+/**
+ * 增量查找会话.
+ *
+ * 增量查找会话用于 "边输入边查找": 查找串每次改变都调用 search(), 会话会缓存
+ * 每个查找串的匹配位置. 查找串被扩展时, 只在上一次的匹配结果中过滤;
+ * 查找串被缩短时, 直接复用较短前缀的缓存结果, 不再扫描整个文本.
+ * <br>
+ * 会话在创建时记录 caret 位置, 每次查找都选择距该位置最近的(向后, 回卷)匹配.
+ * 接受者的文本被修改后, 缓存自动失效, 下一次查找会重新扫描.
+ * <br>
+ * 会话被新的会话替换或者被结束后即关闭, 关闭的会话不再查找或选择.
+ *
+ * @see SigmaI#startIncrementalSearch
+ * */
+public class IncrementalSearch {
+	
+	private SigmaI sigmai;
+	private StyledText editor;
+	
+	private boolean caseSensitive;
+	private boolean wholeWord;
+	private int startOffset;
+	
+	private String text;
+	
+	/*
+	 * 缓存栈, queries[i] 总是 queries[i+1] 的前缀.
+	 * matches 保存的是未经 wholeWord 过滤的匹配位置, 因为 "ab" 的整词匹配
+	 * 不一定包含 "abc" 的整词匹配.
+	 * */
+	private ArrayList<String> queries = new ArrayList<>();
+	private ArrayList<int[]>  matches = new ArrayList<>();
+	
+	private int[]  current = new int[0];
+	private int    currentIndex = -1;
+	private String currentQuery = "";
+	
+	private boolean closed;
+	
+	IncrementalSearch(SigmaI sigmai, boolean caseSensitive, boolean wholeWord) {
+		this.sigmai = sigmai;
+		this.editor = sigmai.getStyledText();
+		this.caseSensitive = caseSensitive;
+		this.wholeWord = wholeWord;
+		this.startOffset = sigmai.toDocumentOffset(editor.getSelection().x);
+	}
+	
+	/**
+	 * 查找.
+	 *
+	 * 以 query 替换当前查找串, 并选择距会话开始位置最近的匹配子串.
+	 * 如果 query 为空串, caret 回到会话开始位置.
+	 *
+	 * @param query 查找串.
+	 * @return 如果查找到, 返回真, 否则返回假. 会话已关闭时返回假.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 query 为 null</li>
+	 * </ul>
+	 * */
+	public boolean search(String query) {
+		checkWidget();
+		if (query == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		if (closed) return false;
+		currentQuery = query;
+		if (query.isEmpty()) {
+			current = new int[0];
+			currentIndex = -1;
+			sigmai.selectDocumentRange(startOffset, 0);
+			return false;
+		}
+		
+		if (!caseSensitive) {
+			query = query.toLowerCase();
+		}
+		current = filterWholeWord(lookup(query), query.length());
+		if (current.length == 0) {
+			currentIndex = -1;
+			return false;
+		}
+		currentIndex = nearest(current, startOffset);
+		select();
+		return true;
+	}
+	
+	/**
+	 * 选择下一个匹配子串.
+	 *
+	 * @return 如果存在匹配子串, 返回真, 否则返回假. 会话已关闭时返回假.
+	 * */
+	public boolean next() {
+		checkWidget();
+		if (closed || current.length == 0) return false;
+		currentIndex = (currentIndex+1) % current.length;
+		select();
+		return true;
+	}
+	
+	/**
+	 * 选择上一个匹配子串.
+	 *
+	 * @return 如果存在匹配子串, 返回真, 否则返回假. 会话已关闭时返回假.
+	 * */
+	public boolean prev() {
+		checkWidget();
+		if (closed || current.length == 0) return false;
+		currentIndex = (currentIndex-1+current.length) % current.length;
+		select();
+		return true;
+	}
+	
+	/**
+	 * 获取当前查找串的匹配个数.
+	 *
+	 * @return 匹配个数.
+	 * */
+	public int getMatchCount() {
+		checkWidget();
+		return current.length;
+	}
+	
+	/**
+	 * 获取当前选择的匹配子串的序号.
+	 *
+	 * @return 序号, 从 0 开始; 没有匹配时返回 -1.
+	 * */
+	public int getMatchIndex() {
+		checkWidget();
+		return currentIndex;
+	}
+	
+	/**
+	 * 取消查找.
+	 *
+	 * caret 回到会话开始位置, 并结束会话. 会话已关闭时不做任何事.
+	 * */
+	public void cancel() {
+		checkWidget();
+		if (closed) return;
+		sigmai.selectDocumentRange(startOffset, 0);
+		sigmai.endIncrementalSearch();
+	}
+	
+	/**
+	 * 判断会话是否已关闭.
+	 *
+	 * @return 结果.
+	 * */
+	public boolean isClosed() {
+		checkWidget();
+		return closed;
+	}
+	
+	/*
+	 * 会话被替换或结束时调用, 丢弃缓存并关闭会话.
+	 * */
+	void close() {
+		invalidate();
+		closed = true;
+	}
+	
+	/**
+	 * 接受者文本被修改时调用, 丢弃所有缓存.
+	 * */
+	void invalidate() {
+		text = null;
+		queries.clear();
+		matches.clear();
+		current = new int[0];
+		currentIndex = -1;
+	}
+	
+	private void checkWidget() {
+		if (sigmai.isDisposed()) {
+			throw new SWTError(SWT.ERROR_WIDGET_DISPOSED);
+		}
+	}
+	
+	private int[] lookup(String query) {
+		int top = queries.size()-1;
+		while (top>=0 && !query.startsWith(queries.get(top))) {
+			queries.remove(top);
+			matches.remove(top);
+			top--;
+		}
+		
+		if (top>=0 && queries.get(top).length()==query.length()) {
+			return matches.get(top);
+		}
+		
+		int[] result = top>=0 ? narrow(matches.get(top), query) : scan(query);
+		queries.add(query);
+		matches.add(result);
+		return result;
+	}
+	
+	private String getText() {
+		if (text == null) {
+			text = editor.getText();
+			if (!caseSensitive) {
+				text = text.toLowerCase();
+			}
+		}
+		return text;
+	}
+	
+	private int[] scan(String query) {
+		String text = getText();
+		int[] result = new int[16];
+		int count = 0;
+		int index = text.indexOf(query);
+		while (index != -1) {
+			if (count == result.length) {
+				result = grow(result);
+			}
+			result[count++] = index;
+			index = text.indexOf(query, index+1);
+		}
+		return trim(result, count);
+	}
+	
+	private int[] narrow(int[] prevMatches, String query) {
+		String text = getText();
+		int[] result = new int[Math.max(prevMatches.length, 1)];
+		int count = 0;
+		for (int index : prevMatches) {
+			if (text.startsWith(query, index)) {
+				result[count++] = index;
+			}
+		}
+		return trim(result, count);
+	}
+	
+	private int[] filterWholeWord(int[] raw, int length) {
+		if (!wholeWord) return raw;
+		String text = getText();
+		int[] result = new int[raw.length];
+		int count = 0;
+		for (int index : raw) {
+			if (!isWordPart(text, index-1) && !isWordPart(text, index+length)) {
+				result[count++] = index;
+			}
+		}
+		return trim(result, count);
+	}
+	
+	private boolean isWordPart(String text, int index) {
+		if (index<0 || index>=text.length()) return false;
+		char c = text.charAt(index);
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+	
+	private int nearest(int[] offsets, int offset) {
+		int low  = 0;
+		int high = offsets.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (offsets[mid] < offset) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		return low==offsets.length ? 0 : low;
+	}
+	
+	private void select() {
+		int index = current[currentIndex];
+		int length = currentQuery.length();
+		sigmai.selectDocumentRange(index, length);
+	}
+	
+	private static int[] grow(int[] array) {
+		int[] tmp = new int[array.length<<1];
+		System.arraycopy(array, 0, tmp, 0, array.length);
+		return tmp;
+	}
+	
+	private static int[] trim(int[] array, int count) {
+		if (count == array.length) return array;
+		int[] tmp = new int[count];
+		System.arraycopy(array, 0, tmp, 0, count);
+		return tmp;
+	}
+}
@@ -1,8 +1,11 @@
 package org.sigmai;
 
+import java.util.TreeMap;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseListener;
+import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Canvas;
@@ -12,10 +15,6 @@ interface FixWidthListener {
 	void fix(int newWidth);
 }
 
-interface ClickListener {
-	void clicked(int line);
-}
-
 class LineMargin extends Canvas {
 	
 	private int maxLineCount = 1;
@@ -34,6 +33,7 @@ class LineMargin extends Canvas {
 	void setFixWidthListener(FixWidthListener fixListener) {
 		checkWidget();
 		this.fixListener = fixListener;
+		fixWidth(true);
 	}
 	
 	void setClickListener(ClickListener clickListener) {
@@ -44,7 +44,7 @@ class LineMargin extends Canvas {
 	private void addListeners() {
 		checkWidget();
 		this.addPaintListener(e->{
-			drawLines(e.gc);
+			drawLines(e.gc, e.y, e.height);
 		});
 		
 		this.addDisposeListener(e->{
@@ -80,39 +80,154 @@ class LineMargin extends Canvas {
 		checkWidget();
 		if (this.maxLineCount != max) {
 			this.maxLineCount = max;
+			fixWidth(false);
 			this.redraw();
 		}
 	}
 	
+	/*
+	 * 滚动时复制仍然可见的像素, 只绘制新露出的行.
+	 * */
 	void setTopPixel(int topPixel) {
 		checkWidget();
 		if (this.topPixel != topPixel) {
+			int delta = this.topPixel - topPixel;
 			this.topPixel = topPixel;
+			Point size = getSize();
+			if (Math.abs(delta) < size.y) {
+				scroll(0, delta, 0, 0, size.x, size.y, false);
+			} else {
+				this.redraw();
+			}
+		}
+	}
+	
+	@Override
+	public void setFont(Font font) {
+		super.setFont(font);
+		digitWidths = null;
+		fixWidth(true);
+		redraw();
+	}
+	
+	private static final String[] DIGITS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+	
+	/*
+	 * 当前字体中每个数字的宽度, 字体改变时重新计算.
+	 * */
+	private int[] digitWidths;
+	private int   maxDigitWidth;
+	
+	/*
+	 * 最大行号的位数, 只有位数改变时才需要改变宽度.
+	 * */
+	private int digitCount;
+	
+	/*
+	 * 绘制行号时使用的数字缓冲, 从右向左填入.
+	 * */
+	private final int[] digitBuffer = new int[10];
+	
+	private void measureDigits() {
+		GC gc = new GC(this);
+		try {
+			gc.setFont(getFont());
+			digitWidths   = new int[DIGITS.length];
+			maxDigitWidth = 0;
+			for (int i=0; i<DIGITS.length; i++) {
+				digitWidths[i] = gc.stringExtent(DIGITS[i]).x;
+				maxDigitWidth  = Math.max(maxDigitWidth, digitWidths[i]);
+			}
+		} finally {
+			gc.dispose();
+		}
+	}
+	
+	private static int countDigits(int n) {
+		int count = 1;
+		while (n >= 10) {
+			n /= 10;
+			count++;
+		}
+		return count;
+	}
+	
+	/*
+	 * 最大行号的位数改变(或 force 为真)时, 通知 fixListener 新的宽度.
+	 * */
+	private void fixWidth(boolean force) {
+		int count = countDigits(documentLine(maxLineCount-1)+1);
+		if (!force && count == digitCount) {
+			return;
+		}
+		digitCount = count;
+		if (fixListener != null) {
+			if (digitWidths == null) {
+				measureDigits();
+			}
+			fixListener.fix(count * maxDigitWidth + 20);
+		}
+	}
+	
+	/*
+	 * 折叠后, 编辑区域的行号到文档行号的差: 键是行号, 值是在它之前(包括它)被隐藏的行数.
+	 * */
+	private TreeMap<Integer, Integer> hiddenLines = new TreeMap<>();
+	
+	void setHiddenLines(TreeMap<Integer, Integer> hiddenLines) {
+		checkWidget();
+		if (!this.hiddenLines.equals(hiddenLines)) {
+			this.hiddenLines = hiddenLines;
+			fixWidth(false);
 			this.redraw();
 		}
 	}
 	
-	private void drawLines(GC gc) {
+	private int documentLine(int line) {
+		var entry = hiddenLines.floorEntry(line);
+		return entry==null ? line : line+entry.getValue();
+	}
+	
+	/*
+	 * 只绘制与 [y, y+height) 相交的行. 行号由缓存的数字宽度居中, 逐个数字绘制, 不分配字符串.
+	 * */
+	private void drawLines(GC gc, int y, int height) {
 		checkWidget();
 		gc.setFont(this.getFont());
-		fixListener.fix(gc.stringExtent(maxLineCount+"").x + 20); 
 		Point size = getSize();
 		//gc.setBackground(this.getBackground());
 		//gc.setForeground(this.getForeground());
-		gc.fillRectangle(0, 0, size.x, size.y);
+		gc.fillRectangle(0, y, size.x, height);
+		gc.drawLine(size.x-1, y, size.x-1, y+height);
+		if (inc <= 0) {
+			return;
+		}
+		if (digitWidths == null) {
+			measureDigits();
+		}
 		
-		int topLine = (-20 - base + topPixel) / inc;
-		int bottomLine = (size.y - base + topPixel)/inc + 1;
+		int topLine = Math.max((y - base + topPixel) / inc - 1, 0);
+		int bottomLine = (y + height - base + topPixel)/inc + 1;
 		if (bottomLine > maxLineCount) {
 			bottomLine = maxLineCount;
 		}
 		for (int i=topLine; i<bottomLine; i++) { 
-			int y = (i * inc + base) - topPixel;  
-			String line = Integer.toString(i+1); 
-			int lineWidth = gc.stringExtent(line).x; 
+			int n = documentLine(i) + 1;
+			int count = 0;
+			int lineWidth = 0;
+			do {
+				int d = n % 10;
+				digitBuffer[count++] = d;
+				lineWidth += digitWidths[d];
+				n /= 10;
+			} while (n > 0);
+			
 			int x = (size.x - lineWidth) >> 1;
-			gc.drawString(line, x, y);
+			int lineY = (i * inc + base) - topPixel;
+			for (int k=count-1; k>=0; k--) {
+				gc.drawString(DIGITS[digitBuffer[k]], x, lineY);
+				x += digitWidths[digitBuffer[k]];
+			}
 		}
-		gc.drawLine(size.x-1, 0, size.x-1, 2000);
 	}
 }
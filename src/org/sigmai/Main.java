@@ -7,6 +7,7 @@ import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.sigmai.lexer.CPPLexer;
+import org.sigmai.lexer.StylePalette;
 
 public class Main {
 	public static void main(String[] args) {
@@ -18,6 +19,14 @@ public class Main {
 		var lexer  = new CPPLexer();
 		lexer.setKeyWord1(new String[]{"int", "short", "long"});
 		//StylePalette.getInstance().setColor(CPPLexer.TK_KEYWORD1, new Color(display, 0xff, 0xff, 00));
+		int[] bracketColors = {SWT.COLOR_DARK_YELLOW, SWT.COLOR_DARK_MAGENTA, SWT.COLOR_DARK_CYAN};
+		var bracketStyles = new StylePalette.Style[bracketColors.length];
+		for (int i=0; i<bracketColors.length; i++) {
+			bracketStyles[i] = new StylePalette.Style();
+			bracketStyles[i].color = display.getSystemColor(bracketColors[i]);
+			bracketStyles[i].fontStyle = SWT.BOLD;
+		}
+		CPPLexer.getStylePaletteStatic().setBracketStyles(bracketStyles);
 		editor.setLexer(lexer);
 		editor.setFont(new Font(display, "Courier New", 18, SWT.NORMAL));
 		editor.getStyledText().setFocus();
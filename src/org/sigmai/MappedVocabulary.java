@@ -0,0 +1,259 @@
+package org.sigmai;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * 内存映射的词汇表文件.
+ *
+ * 文件格式(大端):
+ * magic(int) version(int) count(int) blockSize(int) blockCount(int) blockOffset(int...) block...
+ * 单词按 String.compareTo() 排序并去重, 每 blockSize 个单词组成一块, 块内使用前缀压缩:
+ * 每个单词记为 与前一个单词相同的 UTF-8 字节数(varint), 其余字节数(varint), 其余字节.
+ * 块的第一个单词不压缩, 查找时在块的第一个单词上二分查找, 然后在块内顺序解码.
+ * <br>
+ * 文件以只读方式映射, 同一个文件在进程内只映射一次, 被所有 SigmaI 共享, 不占用 Java 堆.
+ * 映射的文件只读, 可以在后台线程中查找.
+ * */
+final class MappedVocabulary {
+	
+	private static final int MAGIC   = 0x53475643;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	
+	static final int DEFAULT_BLOCK_SIZE = 16;
+	
+	private static final ConcurrentHashMap<Path, MappedVocabulary> CACHE = new ConcurrentHashMap<>();
+	
+	private MappedByteBuffer buffer;
+	private int count;
+	private int blockSize;
+	private int blockCount;
+	private int dataStart;
+	
+	private MappedVocabulary(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.capacity()<HEADER_SIZE || buffer.getInt(0)!=MAGIC || buffer.getInt(4)!=VERSION) {
+			throw new IOException("not a vocabulary file: " + path);
+		}
+		count      = buffer.getInt(8);
+		blockSize  = buffer.getInt(12);
+		blockCount = buffer.getInt(16);
+		dataStart  = HEADER_SIZE + 4*blockCount;
+		if (blockSize<=0 || blockCount<0 || dataStart>buffer.capacity()) {
+			throw new IOException("corrupt vocabulary file: " + path);
+		}
+	}
+	
+	/*
+	 * 打开词汇表文件, 同一个文件只被映射一次.
+	 * */
+	static MappedVocabulary open(Path path) throws IOException {
+		Path key = path.toRealPath();
+		try {
+			return CACHE.computeIfAbsent(key, k->{
+				try {
+					return new MappedVocabulary(k);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	int size() {
+		return count;
+	}
+	
+	/*
+	 * 获取 [from, to) 之间的单词, 单词在遍历时才被解码.
+	 * */
+	Iterable<String> range(String from, String to) {
+		return ()->new Cursor(findBlock(from), from, to);
+	}
+	
+	/*
+	 * 最后一个第一个单词不大于 word 的块.
+	 * */
+	private int findBlock(String word) {
+		int lo = 0, hi = blockCount-1, result = 0;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (firstWord(mid).compareTo(word) <= 0) {
+				result = mid;
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return result;
+	}
+	
+	private String firstWord(int block) {
+		int pos = dataStart + buffer.getInt(HEADER_SIZE + 4*block);
+		pos = skipVarint(pos);
+		int len = readVarint(pos);
+		pos = skipVarint(pos);
+		byte[] bytes = new byte[len];
+		buffer.get(pos, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private int readVarint(int pos) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get(pos++);
+			value |= (b&0x7f) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+	
+	private int skipVarint(int pos) {
+		while (buffer.get(pos++) < 0) {
+		}
+		return pos;
+	}
+	
+	/*
+	 * 顺序解码单词.
+	 * */
+	private class Cursor implements Iterator<String> {
+		private int index;
+		private int pos;
+		private byte[] bytes = new byte[64];
+		private String to;
+		private String next;
+		
+		Cursor(int block, String from, String to) {
+			this.index = block * blockSize;
+			this.pos   = blockCount==0 ? 0 : dataStart + buffer.getInt(HEADER_SIZE + 4*block);
+			this.to    = to;
+			advance();
+			while (next!=null && next.compareTo(from)<0) {
+				advance();
+			}
+		}
+		
+		private void advance() {
+			if (index >= count) {
+				next = null;
+				return;
+			}
+			int shared = readVarint(pos);
+			pos = skipVarint(pos);
+			int len = readVarint(pos);
+			pos = skipVarint(pos);
+			if (shared+len > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(shared+len, bytes.length<<1));
+			}
+			buffer.get(pos, bytes, shared, len);
+			pos += len;
+			index++;
+			next = new String(bytes, 0, shared+len, StandardCharsets.UTF_8);
+			if (next.compareTo(to) >= 0) {
+				next = null;
+				index = count;
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		public String next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			String result = next;
+			advance();
+			return result;
+		}
+	}
+	
+	/*
+	 * 把单词写入词汇表文件. 单词被排序并去重, null 和空串被忽略.
+	 * */
+	static void write(String[] words, Path path, int blockSize) throws IOException {
+		String[] sorted = new PrefixIndex(words).words();
+		int blockCount = (sorted.length+blockSize-1) / blockSize;
+		byte[][] encoded = new byte[sorted.length][];
+		for (int i=0; i<sorted.length; i++) {
+			encoded[i] = sorted[i].getBytes(StandardCharsets.UTF_8);
+		}
+		
+		// 先计算每块的偏移.
+		int[] offsets = new int[blockCount];
+		int offset = 0;
+		for (int i=0; i<sorted.length; i++) {
+			if (i%blockSize == 0) {
+				offsets[i/blockSize] = offset;
+			}
+			int shared = i%blockSize==0 ? 0 : sharedPrefix(encoded[i-1], encoded[i]);
+			offset += varintSize(shared) + varintSize(encoded[i].length-shared) + encoded[i].length-shared;
+		}
+		
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sorted.length);
+			out.writeInt(blockSize);
+			out.writeInt(blockCount);
+			for (int o : offsets) {
+				out.writeInt(o);
+			}
+			for (int i=0; i<sorted.length; i++) {
+				int shared = i%blockSize==0 ? 0 : sharedPrefix(encoded[i-1], encoded[i]);
+				writeVarint(out, shared);
+				writeVarint(out, encoded[i].length-shared);
+				out.write(encoded[i], shared, encoded[i].length-shared);
+			}
+		}
+	}
+	
+	private static int sharedPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i<n && a[i]==b[i]) {
+			i++;
+		}
+		return i;
+	}
+	
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+	
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.write((value&0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,150 @@
+package org.sigmai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * 单词的前缀索引.
+ *
+ * 单词保存在排序并去重的数组中, 以同一前缀开头的单词是数组中连续的一段,
+ * 用二分查找定位这一段, 获取这一段的时间为 O(log n).
+ * <br>
+ * 索引创建后不再改变, 可以在后台线程中使用.
+ * <br>
+ * 索引可以附带一组改变: 相对于数组改变了出现次数的单词. 文档单词索引的快照用它
+ * 避免每次修改后重建整个数组, 只有改变积累到一定数量时才重建.
+ * */
+class PrefixIndex {
+	
+	static final PrefixIndex EMPTY = new PrefixIndex(new String[0]);
+	
+	private String[] words;
+	
+	/*
+	 * 单词在文档中出现的次数, 可以为 null.
+	 * */
+	private int[] counts;
+	
+	/*
+	 * 改变了出现次数的单词和新的次数, 次数为 0 表示单词已被移除. 可以为 null.
+	 * */
+	private TreeMap<String, Integer> changes;
+	
+	/*
+	 * words 必须已经排序并去重.
+	 * */
+	private PrefixIndex(String[] words, int[] counts) {
+		this.words  = words;
+		this.counts = counts;
+	}
+	
+	/*
+	 * 创建在本索引上附带 changes 的索引. 之后调用者不能再修改 changes.
+	 * */
+	PrefixIndex withChanges(TreeMap<String, Integer> changes) {
+		PrefixIndex index = new PrefixIndex(words, counts);
+		index.changes = changes.isEmpty() ? null : changes;
+		return index;
+	}
+	
+	/*
+	 * 由已经排序并去重的单词和出现次数创建索引.
+	 * */
+	static PrefixIndex ofSorted(String[] words, int[] counts) {
+		return new PrefixIndex(words, counts);
+	}
+	
+	PrefixIndex(String[] words) {
+		String[] sorted = new String[words.length];
+		int n = 0;
+		for (String w : words) {
+			if (w!=null && !w.isEmpty()) {
+				sorted[n++] = w;
+			}
+		}
+		Arrays.sort(sorted, 0, n);
+		int size = 0;
+		for (int i=0; i<n; i++) {
+			if (size==0 || !sorted[i].equals(sorted[size-1])) {
+				sorted[size++] = sorted[i];
+			}
+		}
+		this.words = size==sorted.length ? sorted : Arrays.copyOf(sorted, size);
+	}
+	
+	/*
+	 * 数组中的单词数, 不计附带的改变.
+	 * */
+	int size() {
+		return words.length;
+	}
+	
+	/*
+	 * 排序的单词数组, 不包括附带的改变, 调用者不能修改它.
+	 * */
+	String[] words() {
+		return words;
+	}
+	
+	/*
+	 * 单词出现的次数, 不在索引中或者索引没有记录次数时返回 0.
+	 * */
+	int count(String word) {
+		if (changes != null) {
+			Integer count = changes.get(word);
+			if (count != null) return count;
+		}
+		if (counts == null) return 0;
+		int index = lowerBound(word);
+		return index<words.length && words[index].equals(word) ? counts[index] : 0;
+	}
+	
+	/*
+	 * 第一个不小于 prefix 的单词的位置.
+	 * */
+	private int lowerBound(String prefix) {
+		int lo = 0, hi = words.length;
+		while (lo < hi) {
+			int mid = (lo+hi) >>> 1;
+			if (words[mid].compareTo(prefix) < 0) {
+				lo = mid+1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+	
+	/*
+	 * 获取 [from, to) 之间的单词, 按顺序排列.
+	 * 没有附带改变时返回的列表是索引的视图, 否则合并数组和改变中的单词.
+	 * */
+	List<String> subList(String from, String to) {
+		List<String> list = Arrays.asList(words).subList(lowerBound(from), lowerBound(to));
+		if (changes == null) return list;
+		Iterator<Map.Entry<String, Integer>> it = changes.subMap(from, to).entrySet().iterator();
+		Map.Entry<String, Integer> change = it.hasNext() ? it.next() : null;
+		List<String> result = new ArrayList<>(list.size());
+		for (String word : list) {
+			while (change!=null && change.getKey().compareTo(word)<0) {
+				if (change.getValue() > 0) result.add(change.getKey());
+				change = it.hasNext() ? it.next() : null;
+			}
+			if (change!=null && change.getKey().equals(word)) {
+				if (change.getValue() > 0) result.add(word);
+				change = it.hasNext() ? it.next() : null;
+			} else {
+				result.add(word);
+			}
+		}
+		while (change != null) {
+			if (change.getValue() > 0) result.add(change.getKey());
+			change = it.hasNext() ? it.next() : null;
+		}
+		return result;
+	}
+}
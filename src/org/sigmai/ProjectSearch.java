@@ -0,0 +1,359 @@
+package org.sigmai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTError;
+import org.sigmai.event.SearchMatchEvent;
+import org.sigmai.event.SearchMatchListener;
+
+/**
+ * 目录树查找服务.
+ * <br>
+ * ProjectSearch 不依赖任何控件, 它在一个目录树的全部文件中查找, 查找选项的语义与
+ * SigmaI 的 findNextInAll() 以及 findRegex() 相同.
+ * <br>
+ * 文件以只读方式映射到内存, 并在一个有界的 ForkJoinPool 中并行查找.
+ * 二进制文件(前 8000 字节中含有 0 字节)会被跳过.
+ * 每个匹配都立即通过 SearchMatchListener 报告, 注意 listener 会在工作线程中被调用,
+ * 并且可能被并发调用, 需要访问控件时请使用 Display.asyncExec().
+ *
+ * @see SigmaI#openSearchMatch
+ * */
+public class ProjectSearch {
+	
+	private static final int SNIFF_LENGTH  = 8000;
+	private static final int PREVIEW_LIMIT = 240;
+	
+	private Path root;
+	
+	private boolean caseSensitive;
+	private boolean wholeWord;
+	private boolean isRegex;
+	private boolean dotAll;
+	private Charset charset = StandardCharsets.UTF_8;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	private SearchMatchListener matchListener;
+	
+	private ForkJoinPool pool;
+	private ForkJoinTask<?> task;
+	
+	/*
+	 * 当前查找的取消标记. 每次查找使用新的标记, 已经分出的任务检查自己的标记,
+	 * 所以上一次查找的任务不会因为新的查找开始而继续.
+	 * */
+	private AtomicBoolean cancelled;
+	
+	/**
+	 * 构造函数.
+	 *
+	 * @param root 查找的根目录.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 root 为 null.</li>
+	 * </ul>
+	 * */
+	public ProjectSearch(Path root) {
+		if (root == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		this.root = root;
+	}
+	
+	/**
+	 * 设置区分大小写选项.
+	 *
+	 * @param caseSensitive 区分大小写选项.
+	 * */
+	public void setCaseSensitive(boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+	}
+	
+	/**
+	 * 设置作为整体选项.
+	 *
+	 * 正则模式下此选项被忽略, 与 findRegex() 一致.
+	 *
+	 * @param wholeWord 作为整体选项.
+	 * */
+	public void setWholeWord(boolean wholeWord) {
+		this.wholeWord = wholeWord;
+	}
+	
+	/**
+	 * 设置正则模式.
+	 *
+	 * @param isRegex 为真时查找串被视为模式.
+	 * @param dotAll dot 表示所有选项.
+	 * */
+	public void setRegex(boolean isRegex, boolean dotAll) {
+		this.isRegex = isRegex;
+		this.dotAll  = dotAll;
+	}
+	
+	/**
+	 * 设置文件编码.
+	 *
+	 * 默认为 UTF-8, 无法解码的字节被替换, 与 new String(bytes, charset) 一致.
+	 *
+	 * @param charset 文件编码.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 charset 为 null.</li>
+	 * </ul>
+	 * */
+	public void setCharset(Charset charset) {
+		if (charset == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		this.charset = charset;
+	}
+	
+	/**
+	 * 设置并行查找的线程数.
+	 *
+	 * 默认为处理器个数, 必须在 start() 之前调用.
+	 *
+	 * @param parallelism 线程数, 小于 1 时视为 1.
+	 * */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+	
+	/**
+	 * 设置 SearchMatchListener.
+	 *
+	 * @param listener
+	 * @see SearchMatchListener
+	 * */
+	public void setMatchListener(SearchMatchListener listener) {
+		this.matchListener = listener;
+	}
+	
+	/**
+	 * 开始查找.
+	 *
+	 * 方法立即返回, 查找在后台进行. 如果上一次查找尚未结束, 它会被取消.
+	 *
+	 * @param word 查找的单词或模式.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 word 为 null</li>
+	 * <li>SWT.ERROR_INVALID_ARGUMENT - 如果 word 为 空串</li>
+	 * </ul>
+	 * */
+	public synchronized void start(String word) {
+		if (word == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		if (word.isEmpty()) {
+			throw new SWTError(SWT.ERROR_INVALID_ARGUMENT);
+		}
+		cancel();
+		
+		Pattern pattern;
+		if (isRegex) {
+			// 与 findRegex() 相同.
+			int flag = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
+			flag |= dotAll ? Pattern.DOTALL : 0;
+			pattern = Pattern.compile(word, flag);
+		} else {
+			// findNextInAll() 使用 toLowerCase() 比较, 对应 UNICODE_CASE.
+			int flag = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE|Pattern.UNICODE_CASE;
+			pattern = Pattern.compile(Pattern.quote(word), flag);
+		}
+		
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+		cancelled = new AtomicBoolean();
+		task = pool.submit(new DirectoryTask(root, pattern, wholeWord && !isRegex, cancelled));
+	}
+	
+	/**
+	 * 取消查找.
+	 *
+	 * 取消后不会再有新的匹配被报告, 但正在执行的 listener 调用不会被打断.
+	 * */
+	public synchronized void cancel() {
+		if (cancelled != null) {
+			cancelled.set(true);
+			cancelled = null;
+		}
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+	
+	/**
+	 * 判断查找是否已经结束.
+	 *
+	 * @return 结果.
+	 * */
+	public synchronized boolean isDone() {
+		return task==null || task.isDone();
+	}
+	
+	/**
+	 * 等待查找结束.
+	 * */
+	public void join() {
+		ForkJoinTask<?> task;
+		synchronized (this) {
+			task = this.task;
+		}
+		if (task != null) {
+			try {
+				task.join();
+			} catch (RuntimeException e) {
+				// 被取消.
+			}
+		}
+	}
+	
+	/**
+	 * 关闭查找服务, 释放线程.
+	 * */
+	public synchronized void dispose() {
+		cancel();
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+	}
+	
+	private class DirectoryTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private Path dir;
+		private Pattern pattern;
+		private boolean wholeWord;
+		private AtomicBoolean cancelled;
+		
+		DirectoryTask(Path dir, Pattern pattern, boolean wholeWord, AtomicBoolean cancelled) {
+			this.dir = dir;
+			this.pattern = pattern;
+			this.wholeWord = wholeWord;
+			this.cancelled = cancelled;
+		}
+		
+		@Override
+		protected void compute() {
+			if (cancelled.get()) return;
+			if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+				searchFile(dir, pattern, wholeWord, cancelled);
+				return;
+			}
+			List<DirectoryTask> tasks = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path p : stream) {
+					if (cancelled.get()) return;
+					if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)
+							|| Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) {
+						tasks.add(new DirectoryTask(p, pattern, wholeWord, cancelled));
+					}
+				}
+			} catch (IOException e) {
+				return;
+			}
+			invokeAll(tasks);
+		}
+	}
+	
+	private void searchFile(Path path, Pattern pattern, boolean wholeWord, AtomicBoolean cancelled) {
+		CharBuffer text;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size==0 || size>Integer.MAX_VALUE) return;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (isBinary(buffer)) return;
+			text = charset.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE)
+						.decode(buffer);
+		} catch (IOException | RuntimeException e) {
+			return;
+		}
+		
+		Matcher matcher = pattern.matcher(text);
+		int line = 0;
+		int lineStart = 0;
+		int scanned = 0;
+		while (!cancelled.get() && matcher.find()) {
+			int start = matcher.start();
+			if (wholeWord && !isWholeWord(text, start, matcher.end())) {
+				continue;
+			}
+			// 与 StyledText 一致: "\r\n", "\r", "\n" 都是行分隔符.
+			for (int i=scanned; i<start; i++) {
+				char c = text.get(i);
+				if (c == '\n' || (c == '\r' && (i+1>=text.length() || text.get(i+1)!='\n'))) {
+					line++;
+					lineStart = i+1;
+				}
+			}
+			scanned = start;
+			
+			SearchMatchEvent e = new SearchMatchEvent();
+			e.path    = path;
+			e.charset = charset;
+			e.offset  = start;
+			e.length  = matcher.end() - start;
+			e.line    = line;
+			e.column  = start - lineStart;
+			e.preview = preview(text, Math.max(lineStart, start-PREVIEW_LIMIT/2));
+			if (matchListener != null) {
+				matchListener.matched(e);
+			}
+		}
+	}
+	
+	private static boolean isBinary(ByteBuffer buffer) {
+		int len = Math.min(buffer.limit(), SNIFF_LENGTH);
+		for (int i=0; i<len; i++) {
+			if (buffer.get(i) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean isWholeWord(CharBuffer text, int start, int end) {
+		return !isWordPart(text, start-1) && !isWordPart(text, end);
+	}
+	
+	private static boolean isWordPart(CharBuffer text, int index) {
+		if (index<0 || index>=text.length()) return false;
+		char c = text.get(index);
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+	
+	private static String preview(CharBuffer text, int from) {
+		int end = from;
+		int limit = Math.min(text.length(), from + PREVIEW_LIMIT);
+		while (end<limit && text.get(end)!='\r' && text.get(end)!='\n') {
+			end++;
+		}
+		return text.subSequence(from, end).toString();
+	}
+}
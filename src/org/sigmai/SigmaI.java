@@ -1,10 +1,13 @@
 package org.sigmai;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Objects;
 import java.util.Stack;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -13,6 +16,7 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.SWTError;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
 import org.eclipse.swt.custom.TextChangeListener;
 import org.eclipse.swt.custom.TextChangedEvent;
 import org.eclipse.swt.custom.TextChangingEvent;
@@ -39,11 +43,13 @@ import org.sigmai.event.InputModeChangedEvent;
 import org.sigmai.event.InputModeChangedListener;
 import org.sigmai.event.PairEvent;
 import org.sigmai.event.PairListener;
+import org.sigmai.event.SearchMatchEvent;
 import org.sigmai.event.UndoRedoEvent;
 import org.sigmai.event.UndoRedoListener;
-import org.sigmai.lexer.FoldToken;
+import org.sigmai.lexer.BracketIndex;
+import org.sigmai.lexer.IdentifierIndex;
 import org.sigmai.lexer.Lexer;
-import org.sigmai.lexer.MultiCommentToken;
+import org.sigmai.lexer.RangeIndex;
 import org.sigmai.lexer.RangeToken;
 import org.sigmai.lexer.StylePalette;
 import org.sigmai.lexer.Token;
@@ -125,6 +131,26 @@ public class SigmaI extends Composite {
 	 * */
 	public static final int PAIR_DOUBLE_QUOT = 1 << 9;
 	
+	/**
+	 * 查找范围标签, 指定在代码(字符串和注释之外)中查找.
+	 * */
+	public static final int SCOPE_CODE    = 1 << 10;
+	
+	/**
+	 * 查找范围标签, 指定在注释中查找.
+	 * */
+	public static final int SCOPE_COMMENT = 1 << 11;
+	
+	/**
+	 * 查找范围标签, 指定在字符串中查找.
+	 * */
+	public static final int SCOPE_STRING  = 1 << 12;
+	
+	/**
+	 * 查找范围标签, 指定在全部文本中查找.
+	 * */
+	public static final int SCOPE_ALL = SCOPE_CODE | SCOPE_COMMENT | SCOPE_STRING;
+	
 	private StyledText editor;
 	private LineMargin lineMargin;
 	private FoldMargin foldMargin;
@@ -164,6 +190,10 @@ public class SigmaI extends Composite {
 	/**
 	 * 获取 内部使用的 StyledText.
 	 * 
+	 * 编辑区域显示的是文档去掉被折叠隐藏的行之后的投影, 位置, 行号, 选择以及 getCharCount(), getTextRange()
+	 * 等都针对显示的文本; 而 getContent() 返回文档本身, getText() 返回文档的全部文本, 复制和剪切包括被隐藏的文本.
+	 * 折叠和展开不修改文档, 不产生 Modify, ExtendedModify 事件, 也不产生 getContent() 上的 TextChange 事件.
+	 * 
 	 * @return 接受者的 StyledText 控件.
 	 * */
 	public StyledText getStyledText() {
@@ -292,6 +322,8 @@ public class SigmaI extends Composite {
 	public void setLexer(Lexer lexer) {
 		checkWidget();
 		this.lexer = lexer;
+		lexerUpToDate = false;
+		lexerWordIndex = null;
 	}
 	
 	/**
@@ -589,9 +621,16 @@ public class SigmaI extends Composite {
 		}
 	}
 	
+	/*
+	 * offset 是文档中的位置, 被折叠隐藏时不记录样式.
+	 * */
 	private void cacheStyle(int offset) {
 		checkWidget();
-		boxedPairStyle  = editor.getStyleRangeAtOffset(offset);
+		if (folding.isHidden(offset)) {
+			boxedPairStyle = null;
+			return;
+		}
+		boxedPairStyle  = editor.getStyleRangeAtOffset(folding.toViewOffset(offset));
 		//boxedPairOffset = offset;
 	}
 
@@ -613,19 +652,44 @@ public class SigmaI extends Composite {
 		}*/
 	}
 
+	/*
+	 * offset 是文档中的位置, 被折叠隐藏时什么都不做.
+	 * */
 	private void boxHalf(int offset) {
 		checkWidget();
+		if (folding.isHidden(offset)) {
+			return;
+		}
 		StyleRange style = new StyleRange();
-		style.start  = offset;
+		style.start  = folding.toViewOffset(offset);
 		style.length = 1;
 		style.borderStyle = SWT.BORDER_SOLID;
 		editor.setStyleRange(style);
 	}
 
+	/*
+	 * 词法解析器的括号配对表对应当前文本时为真.
+	 * */
+	private boolean hasBracketIndex() {
+		return lexer!=null && lexerUpToDate && lexer.isSupportBracketPair();
+	}
+	
 	private void matchBraces() {
 		checkWidget();
+		int caretOffset = folding.toDocumentOffset(editor.getCaretOffset());
+		if (hasBracketIndex()) {
+			unBoxHalf();
+			BracketIndex brackets = lexer.getBracketIndex();
+			int i = brackets.indexOf(caretOffset);
+			if (i>=0 && brackets.getPartner(i)>=0 && matchBrace[brackets.getKind(i)]) {
+				cacheStyle(brackets.getPartner(i));
+				boxHalf(brackets.getPartner(i));
+			}
+			return;
+		}
+		
+		// 词法解析器不记录括号或解析结果已过期时, 逐字符扫描.
 		String text = editor.getText();
-		int caretOffset = editor.getCaretOffset();
 		char half = 0;
 		
 		if (isInRangeToken(caretOffset)) {
@@ -647,11 +711,16 @@ public class SigmaI extends Composite {
 	
 	private int fixRightOffset(int offset, char leftHalf, char rightHalf) {
 		checkWidget();
-		String text = editor.getText(offset, editor.getCharCount()-1);
+		StyledTextContent document = editor.getContent();
+		String text = document.getTextRange(offset, document.getCharCount()-offset);
+		RangeIndex ranges = lexer==null ? null : lexer.getRangeIndex();
 		int stack = 1;
 		int len   = text.length();
 		for (int i=0; i<len; i++) {
-			if  (isInRangeToken(i+offset)) {
+			int range = ranges==null ? -1 : ranges.indexOf(i+offset);
+			if (range >= 0) {
+				// 跳过整个区间.
+				i = ranges.getEnd(range)-offset-1;
 				continue;
 			}
 			char c = text.charAt(i); 
@@ -694,11 +763,15 @@ public class SigmaI extends Composite {
 	
 	private int fixLeftOffset(int offset, char leftHalf, char rightHalf) {
 		checkWidget();
-		String text = editor.getText(0, offset);
+		String text = editor.getContent().getTextRange(0, offset+1);
+		RangeIndex ranges = lexer==null ? null : lexer.getRangeIndex();
 		int stack = 1;
 		int len   = text.length();
 		for (int i=len-1; i>=0; i--) {
-			if (isInRangeToken(i)) {
+			int range = ranges==null ? -1 : ranges.indexOf(i);
+			if (range >= 0) {
+				// 跳过整个区间.
+				i = ranges.getStart(range);
 				continue;
 			}
 			char c = text.charAt(i);
@@ -714,18 +787,133 @@ public class SigmaI extends Composite {
 		return -1;
 	}
 	
-	private boolean isInRangeToken(int offset) {
+	/**
+	 * 跳转到匹配的括号.
+	 * 
+	 * 如果 caret 右边的字符是括号, caret 跳转到与它匹配的括号之前;
+	 * 否则如果 caret 左边的字符是括号, caret 跳转到与它匹配的括号之后.
+	 * 字符串和注释中的括号不参与匹配.
+	 * 
+	 * @return 如果找到匹配的括号, 返回真; 否则返回假.
+	 * */
+	public boolean jumpToMatchingBracket() {
 		checkWidget();
-		if (lexer == null) {
+		int caretOffset = folding.toDocumentOffset(editor.getCaretOffset());
+		int partner = findMatchingBracket(caretOffset);
+		if (partner >= 0) {
+			selectDocumentRange(partner, 0);
+			return true;
+		}
+		partner = findMatchingBracket(caretOffset-1);
+		if (partner >= 0) {
+			selectDocumentRange(partner+1, 0);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * 选择包围选择区域的最内层括号对.
+	 * 
+	 * 新的选择区域从左括号开始, 到右括号结束(包括括号). 
+	 * 如果选择区域恰好是一个括号对, 选择包围它的上一层括号对, 所以重复调用时依次选择更外层的括号对.
+	 * 
+	 * @return 如果找到包围选择区域的括号对, 返回真; 否则返回假.
+	 * */
+	public boolean selectEnclosingBlock() {
+		checkWidget();
+		Point selection = editor.getSelection();
+		int[] range = folding.toDocumentRange(selection.x, selection.y);
+		int open  = -1;
+		int close = -1;
+		if (hasBracketIndex()) {
+			BracketIndex brackets = lexer.getBracketIndex();
+			int i = brackets.findEnclosing(range[0], range[1]);
+			if (i >= 0) {
+				open  = brackets.getOffset(i);
+				close = brackets.getPartner(i);
+			}
+		} else {
+			open = findEnclosingBracket(range[0], range[1]);
+			if (open >= 0) {
+				close = findMatchingBracket(open);
+			}
+		}
+		if (open < 0) {
 			return false;
 		}
-		TreeSet<RangeToken> rangeTokens = lexer.getRangeTokenList();
-		for (var tk : rangeTokens) {
-			if (offset>=tk.start && offset<=tk.end) {
-				return true;
+		// 只展开括号所在的折叠区域, 括号之间的折叠区域保持折叠.
+		revealRange(open, open);
+		revealRange(close, close);
+		editor.setSelection(folding.toViewOffset(open), folding.toViewOffset(close)+1);
+		return true;
+	}
+	
+	/*
+	 * 获取与 offset 处的括号匹配的括号的位置, 如果 offset 处不是括号或没有匹配的括号, 返回 -1.
+	 * */
+	private int findMatchingBracket(int offset) {
+		StyledTextContent document = editor.getContent();
+		if (offset<0 || offset>=document.getCharCount()) {
+			return -1;
+		}
+		if (hasBracketIndex()) {
+			BracketIndex brackets = lexer.getBracketIndex();
+			int i = brackets.indexOf(offset);
+			return i<0 ? -1 : brackets.getPartner(i);
+		}
+		if (isInRangeToken(offset)) {
+			return -1;
+		}
+		char c = document.getTextRange(offset, 1).charAt(0);
+		int kind = BracketIndex.kindOf(c);
+		if (kind < 0) {
+			return -1;
+		}
+		char leftHalf  = BracketIndex.OPENS.charAt(kind);
+		char rightHalf = BracketIndex.CLOSES.charAt(kind);
+		if (c == leftHalf) {
+			if (offset+1 >= document.getCharCount()) {
+				return -1;
 			}
+			int rightOffset = fixRightOffset(offset+1, leftHalf, rightHalf);
+			return rightOffset<0 ? -1 : offset+1+rightOffset;
 		}
-		return false;
+		return offset==0 ? -1 : fixLeftOffset(offset-1, leftHalf, rightHalf);
+	}
+	
+	/*
+	 * 逐字符向左扫描, 查找包围 [start, end) 的最内层括号对的左括号.
+	 * */
+	private int findEnclosingBracket(int start, int end) {
+		if (start <= 0) {
+			return -1;
+		}
+		String text = editor.getContent().getTextRange(0, start);
+		int[] depths = new int[BracketIndex.OPENS.length()];
+		for (int i=start-1; i>=0; i--) {
+			char c = text.charAt(i);
+			int kind = BracketIndex.kindOf(c);
+			if (kind<0 || isInRangeToken(i)) {
+				continue;
+			}
+			if (c != BracketIndex.OPENS.charAt(kind)) {
+				depths[kind]++;
+			} else if (depths[kind] > 0) {
+				depths[kind]--;
+			} else if (findMatchingBracket(i) >= end) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isInRangeToken(int offset) {
+		checkWidget();
+		if (lexer == null) {
+			return false;
+		}
+		return lexer.getRangeIndex().contains(offset);
 	}
 	
 	private boolean highLightWord;
@@ -769,41 +957,30 @@ public class SigmaI extends Composite {
 	 * */
 	public String getWordAtOffset(int offset) {
 		checkWidget();
-		String text = editor.getText();
-		int len     = text.length();
-		StringBuffer leftHalf = new StringBuffer();
-		StringBuffer rightHalf = new StringBuffer();
-		
-		for (int i=offset; i<len; i++) {
-			char c = 0;
-			try {		
-				c = text.charAt(i);
-			} catch (Exception e) {
-				c = '\0';
-			} 
-			if (Character.isLetterOrDigit(c) || c=='_') {
-				rightHalf.append(c);
-			} else {
-				break;
-			}
+		wordStart = offset;
+		if (offset<0 || offset>editor.getCharCount()) {
+			return "";
 		}
 		
-		for (wordStart=offset-1; wordStart>=0; wordStart--) {
-			char c = 0;
-			try {		
-				c = text.charAt(wordStart);
-			} catch (Exception e) {
-				c = '\0';
-			}
-			if (Character.isLetterOrDigit(c) || c=='_') {
-				leftHalf.append(c);
-			} else {
-				break;
-			}
-		}
-		wordStart++ ;
+		// 单词不跨行, 只需检查 offset 所在的行.
+		int line      = editor.getLineAtOffset(offset);
+		int lineStart = editor.getOffsetAtLine(line);
+		String text   = editor.getLine(line);
+		int start = offset - lineStart;
+		if (start > text.length()) {
+			// offset 位于行分隔符中间.
+			return "";
+		}
+		int end   = start;
+		while (end<text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end)=='_')) {
+			end++;
+		}
+		while (start>0 && (Character.isLetterOrDigit(text.charAt(start-1)) || text.charAt(start-1)=='_')) {
+			start--;
+		}
+		wordStart = lineStart + start;
 		
-		return leftHalf.reverse().append(rightHalf).toString();
+		return text.substring(start, end);
 	}
 	
 	/**
@@ -882,18 +1059,77 @@ public class SigmaI extends Composite {
 		}
 		wordCompleter.setVocabulary(vocabulary);
 	}
+	
+	/**
+	 * 从词汇表文件设置基本随笔提示词汇.
+	 * 
+	 * 词汇表文件由 VocabularyBuilder 生成, 以只读方式映射到内存, 同一个文件在进程内
+	 * 只映射一次并被所有 SigmaI 共享, 适用于几十万个单词的大词典.
+	 * 调用 setVocabulary() 会替换词汇表文件.
+	 * <br>
+	 * 方法不检查是否开启随笔提示功能.
+	 * 
+	 * @param path 词汇表文件.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 path 为 null.</li>
+	 * <li>SWT.ERROR_IO - 如果读取文件失败或者文件不是词汇表文件.</li>
+	 * </ul>
+	 * @see VocabularyBuilder
+	 * */
+	public void setVocabularyFile(Path path) {
+		checkWidget();
+		if (path == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		try {
+			wordCompleter.setVocabulary(MappedVocabulary.open(path));
+		} catch (IOException ex) {
+			SWTError error = new SWTError(SWT.ERROR_IO);
+			error.throwable = ex;
+			throw error;
+		}
+	}
+	
+	/**
+	 * 设置随笔提示的采用记录文件.
+	 * 
+	 * 随笔提示记录用户采用的单词, 并优先给出常用的单词, 一段时间不用的单词的权重逐渐降低.
+	 * 采用记录在进程内共享. 设置文件后, 文件中已有的记录在后台线程中读入,
+	 * 之后的每次采用被追加到文件中. 文件不存在时会被创建.
+	 * 
+	 * @param path 记录文件, 为 null 时不再写入文件.
+	 * */
+	public void setCompletionHistoryFile(Path path) {
+		checkWidget();
+		CompletionHistory.INSTANCE.setFile(path);
+	}
+	
+	/**
+	 * 开启或关闭跨编辑器的随笔提示.
+	 * 
+	 * 开启后, 接受者文档中的单词加入进程内共享的符号字典, 随笔提示也会给出
+	 * 其它开启了此功能的 SigmaI 文档中的单词. 接受者被销毁时自动退出共享.
+	 * <br>
+	 * 无论是否开启, 内容相同的基本随笔提示单词和词汇在进程内只保存一份.
+	 * 
+	 * @param share 参数.
+	 * */
+	public void setSharedCompletion(boolean share) {
+		checkWidget();
+		wordCompleter.setSharing(share);
+	}
 
 	/**
 	 * 显示随笔提示面板.
 	 * 
 	 * 如果未开启随笔提示功能, 方法不会显示随笔提示面板.
 	 * 
-	 * @param wordList 单词列表.
+	 * @param wordList 单词列表, 按显示的顺序排列.
 	 * @exception SWTError <ul>
 	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 wordList 为 null.</li>
 	 * </ul>
 	 * */
-	void showCompleteWordList(TreeSet<String> wordList) {
+	void showCompleteWordList(String[] wordList) {
 		checkWidget();
 		if (wordList == null)
 			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
@@ -913,17 +1149,27 @@ public class SigmaI extends Composite {
 		}
 	}
 	
+	/*
+	 * lexer 解析的单词的前缀索引, 每次解析后第一次使用时创建.
+	 * */
+	private PrefixIndex lexerWordIndex;
+	
 	/**
 	 * 获取单词列表.
 	 * 
-	 * 获取 lexer 解析的单词列表, 如果 lexer 为 null, 返回 null.
-	 * @return lexer 解析的单词列表.
+	 * 获取 lexer 解析的单词的前缀索引, 如果 lexer 为 null, 返回空索引.
+	 * 索引在每次解析之后只创建一次, 随笔提示不必每次复制 lexer 的单词集合.
+	 * @return lexer 解析的单词的前缀索引.
 	 * */
-	TreeSet<String> getWordList() {
+	PrefixIndex getWordIndex() {
 		checkWidget();
-		if (lexer != null)
-			return lexer.getWordList();
-		return null;
+		if (lexer == null) {
+			return PrefixIndex.EMPTY;
+		}
+		if (lexerWordIndex == null) {
+			lexerWordIndex = PrefixIndex.ofSorted(lexer.getWordList().toArray(new String[0]), null);
+		}
+		return lexerWordIndex;
 	}
 	
 	/**
@@ -967,7 +1213,7 @@ public class SigmaI extends Composite {
 	/**
 	 * 跳转到指定行.
 	 * 
-	 * 编辑区域会滚动到适当位置.
+	 * 编辑区域会滚动到适当位置. line 是文档中的行, 如果它被折叠隐藏, 只有包含它的折叠区域被展开.
 	 * 
 	 * @param line 指定的行.
 	 * @exception SWTError <ul>
@@ -976,9 +1222,120 @@ public class SigmaI extends Composite {
 	 * */
 	public void gotoLine(int line) {
 		checkWidget();
-		if (line<0 || line>=editor.getLineCount())
+		StyledTextContent document = editor.getContent();
+		if (line<0 || line>=document.getLineCount())
 			throw new SWTError(SWT.ERROR_INVALID_RANGE);
-		editor.setSelection(editor.getOffsetAtLine(line));
+		selectDocumentRange(document.getOffsetAtLine(line), 0);
+	}
+	
+	/*
+	 * 选择文档中的 [start, start+length) 并滚动到它, 只展开与它相交的折叠区域.
+	 * */
+	void selectDocumentRange(int start, int length) {
+		checkWidget();
+		revealRange(start, start+length);
+		int offset = folding.toViewOffset(start);
+		editor.setSelection(offset, offset+length);
+	}
+	
+	/*
+	 * 编辑区域中的位置对应的文档位置.
+	 * */
+	int toDocumentOffset(int offset) {
+		checkWidget();
+		return folding.toDocumentOffset(offset);
+	}
+	
+	/*
+	 * 文档中的位置对应的编辑区域中的位置.
+	 * */
+	int toViewOffset(int offset) {
+		checkWidget();
+		return folding.toViewOffset(offset);
+	}
+	
+	private IncrementalSearch incrementalSearch;
+	
+	/**
+	 * 开始增量查找.
+	 * 
+	 * 如果已存在增量查找会话, 旧的会话会被结束并关闭.
+	 * 
+	 * @param caseSensitive 区分大小写选项.
+	 * @param wholeWord 作为整体选项.
+	 * @return 新的增量查找会话.
+	 * @see IncrementalSearch
+	 * */
+	public IncrementalSearch startIncrementalSearch(boolean caseSensitive, boolean wholeWord) {
+		checkWidget();
+		if (incrementalSearch != null) {
+			incrementalSearch.close();
+		}
+		incrementalSearch = new IncrementalSearch(this, caseSensitive, wholeWord);
+		return incrementalSearch;
+	}
+	
+	/**
+	 * 结束增量查找.
+	 * 
+	 * 当前选择的匹配子串保持被选择状态, 会话被关闭.
+	 * */
+	public void endIncrementalSearch() {
+		checkWidget();
+		if (incrementalSearch != null) {
+			incrementalSearch.close();
+		}
+		incrementalSearch = null;
+	}
+	
+	/**
+	 * 打开查找结果.
+	 * 
+	 * 以 e.charset 读入 e.path 指定的文件作为接受者的文本, 然后选择匹配子串.
+	 * 
+	 * @param e ProjectSearch 报告的匹配.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 e 为 null.</li>
+	 * <li>SWT.ERROR_IO - 如果读取文件失败.</li>
+	 * </ul>
+	 * @see ProjectSearch
+	 * */
+	public void openSearchMatch(SearchMatchEvent e) {
+		checkWidget();
+		if (e == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		try {
+			setText(new String(Files.readAllBytes(e.path), e.charset));
+		} catch (IOException ex) {
+			SWTError error = new SWTError(SWT.ERROR_IO);
+			error.throwable = ex;
+			throw error;
+		}
+		showSearchMatch(e);
+	}
+	
+	/**
+	 * 选择查找结果.
+	 * 
+	 * 接受者的文本需已是 e.path 指定文件的内容, 匹配子串按行列定位.
+	 * 
+	 * @param e ProjectSearch 报告的匹配.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 e 为 null.</li>
+	 * <li>SWT.ERROR_INVALID_RANGE - 如果 e.line 超出行数.</li>
+	 * </ul>
+	 * */
+	public void showSearchMatch(SearchMatchEvent e) {
+		checkWidget();
+		if (e == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		gotoLine(e.line);
+		StyledTextContent document = editor.getContent();
+		int offset = document.getOffsetAtLine(e.line) + e.column;
+		int length = Math.min(e.length, document.getCharCount()-offset);
+		selectDocumentRange(offset, length);
 	}
 	
 	private int findCount = 0;
@@ -1000,6 +1357,30 @@ public class SigmaI extends Composite {
 	 * </ul>
 	 * */
 	public boolean findNextInAll(String word, boolean caseSensitive, boolean wholeWord, boolean wrap) {
+		checkWidget();
+		return findNextInAll(word, caseSensitive, wholeWord, wrap, SCOPE_ALL);
+	}
+	
+	/**
+	 * 在全部文本中寻找.
+	 * 
+	 * 在接受者的全部文本范围向后查找字符串, 如果找到匹配子串, 匹配子串会被选择.
+	 * <br>
+	 * scope 限定匹配子串所处的范围, 它依赖 lexer 的解析结果, 如果未设置 lexer, scope 被忽略.
+	 * 如果设置了 lexer, 并且 word 是一个单词, 整体查找直接使用 lexer 的标识符索引.
+	 * 
+	 * @param word 查找的单词.
+	 * @param caseSensitive 区分大小写选项.
+	 * @param wholeWord 作为整体选项.
+	 * @param wrap 回卷选项.
+	 * @param scope 查找范围标签, SCOPE_CODE, SCOPE_COMMENT, SCOPE_STRING 的位或值.
+	 * @return 如果查找到, 返回真, 否则返回假.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 word 为 null</li>
+	 * <li>SWT.ERROR_INVALID_ARGUMENT - 如果 word 为 空串</li>
+	 * </ul>
+	 * */
+	public boolean findNextInAll(String word, boolean caseSensitive, boolean wholeWord, boolean wrap, int scope) {
 		checkWidget();
 		if (word == null) {
 			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
@@ -1007,22 +1388,35 @@ public class SigmaI extends Composite {
 		if (word.isEmpty()) {
 			throw new SWTError(SWT.ERROR_INVALID_ARGUMENT);
 		}
+		String text = null;
+		int[] offsets = getWholeWordOffsets(word, caseSensitive, wholeWord);
 		
-		String text = editor.getText();
-		
-		if (!caseSensitive) {
-			text = text.toLowerCase();
-			word = word.toLowerCase();
-		}
-		
-		if (!text.contains(word)) {
-			return false;
+		if (offsets != null) {
+			if (offsets.length == 0) {
+				return false;
+			}
+		} else {
+			text = editor.getText();
+			
+			if (!caseSensitive) {
+				text = text.toLowerCase();
+				word = word.toLowerCase();
+			}
+			
+			if (!text.contains(word)) {
+				return false;
+			}
 		}
 		
 		while (true) {
-			int index = text.indexOf(word, editor.getCaretOffset());
-			if (wholeWord) {
-				while (index!=-1 && fixIndexForWholeWord(index, word.length())) {
+			int index;
+			int caretOffset = folding.toDocumentOffset(editor.getCaretOffset());
+			if (offsets != null) {
+				index = nextOffset(offsets, caretOffset, scope);
+			} else {
+				index = text.indexOf(word, caretOffset);
+				while (index!=-1 && ((wholeWord && fixIndexForWholeWord(index, word.length()))
+										|| !isInScope(index, scope))) {
 					index = text.indexOf(word, index+word.length());
 				}
 			}
@@ -1041,8 +1435,7 @@ public class SigmaI extends Composite {
 				}
 			}
 			
-			this.gotoLine(editor.getLineAtOffset(index));
-			editor.setSelectionRange(index, word.length());
+			selectDocumentRange(index, word.length());
 			return true;
 		}
 	}
@@ -1067,6 +1460,29 @@ public class SigmaI extends Composite {
 	 * </ul>
 	 * */
 	public boolean findPrevInAll(String word, boolean caseSensitive, boolean wholeWord, boolean wrap) {
+		checkWidget();
+		return findPrevInAll(word, caseSensitive, wholeWord, wrap, SCOPE_ALL);
+	}
+	
+	/**
+	 * 在全部文本中寻找.
+	 * 
+	 * 在接受者的全部文本范围向前查找字符串, 如果找到匹配子串, 匹配子串会被选择.
+	 * <br>
+	 * scope 的含义与 findNextInAll() 相同.
+	 * 
+	 * @param word 查找的单词.
+	 * @param caseSensitive 区分大小写选项.
+	 * @param wholeWord 作为整体选项.
+	 * @param wrap 回卷选项.
+	 * @param scope 查找范围标签, SCOPE_CODE, SCOPE_COMMENT, SCOPE_STRING 的位或值.
+	 * @return 如果查找到, 返回真, 否则返回假.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 word 为 null</li>
+	 * <li>SWT.ERROR_INVALID_ARGUMENT - 如果 word 为 空串</li>
+	 * </ul>
+	 * */
+	public boolean findPrevInAll(String word, boolean caseSensitive, boolean wholeWord, boolean wrap, int scope) {
 		checkWidget();
 		if (word == null) {
 			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
@@ -1074,27 +1490,34 @@ public class SigmaI extends Composite {
 		if (word.isEmpty()) {
 			throw new SWTError(SWT.ERROR_INVALID_ARGUMENT);
 		}
+		String text = null;
+		int[] offsets = getWholeWordOffsets(word, caseSensitive, wholeWord);
 		
-		String text = editor.getText();
-		
-		if (!caseSensitive) {
-			text = text.toLowerCase();
-			word = word.toLowerCase();
+		if (offsets == null) {
+			text = editor.getText();
+			
+			if (!caseSensitive) {
+				text = text.toLowerCase();
+				word = word.toLowerCase();
+			}
 		}
 		
 		if (!indexInited) {
-			indexForFindPrev = editor.getCaretOffset();
+			indexForFindPrev = folding.toDocumentOffset(editor.getCaretOffset());
 			indexInited = true;
 		}
 		
-		if (!text.contains(word)) {
+		if (offsets!=null ? offsets.length==0 : !text.contains(word)) {
 			return false;
 		}
 			
 		while (true) {
-			indexForFindPrev = text.lastIndexOf(word, indexForFindPrev-1);
-			if (wholeWord) {
-				while (indexForFindPrev!=-1 && fixIndexForWholeWord(indexForFindPrev, word.length())) {
+			if (offsets != null) {
+				indexForFindPrev = prevOffset(offsets, indexForFindPrev-1, scope);
+			} else {
+				indexForFindPrev = text.lastIndexOf(word, indexForFindPrev-1);
+				while (indexForFindPrev!=-1 && ((wholeWord && fixIndexForWholeWord(indexForFindPrev, word.length()))
+										|| !isInScope(indexForFindPrev, scope))) {
 					indexForFindPrev = text.lastIndexOf(word, indexForFindPrev-1);
 				}
 			}
@@ -1106,15 +1529,14 @@ public class SigmaI extends Composite {
 						findPrevCount = 0;
 						return false;
 					}
-					indexForFindPrev = editor.getCharCount();
+					indexForFindPrev = editor.getContent().getCharCount();
 					continue;
 				} else {
 					return false;
 				}
 			}
 			
-			this.gotoLine(editor.getLineAtOffset(indexForFindPrev));
-			editor.setSelectionRange(indexForFindPrev, word.length());
+			selectDocumentRange(indexForFindPrev, word.length());
 			indexForFindPrev--;
 			return true;
 		}
@@ -1205,11 +1627,16 @@ public class SigmaI extends Composite {
 			throw new SWTError(SWT.ERROR_INVALID_ARGUMENT);
 		}
 		int replaceCount = 0;
-		if (findPrevInAll(word, caseSensitive, wholeWord, wrap)) {
-			while (replacePrevInAll(newWord, word, caseSensitive, wholeWord, wrap)>-1) {
+		beginBatch();
+		try {
+			if (findPrevInAll(word, caseSensitive, wholeWord, wrap)) {
+				while (replacePrevInAll(newWord, word, caseSensitive, wholeWord, wrap)>-1) {
+					replaceCount++;
+				}
 				replaceCount++;
 			}
-			replaceCount++;
+		} finally {
+			endBatch();
 		}
 		return replaceCount;
 	}
@@ -1239,41 +1666,109 @@ public class SigmaI extends Composite {
 			throw new SWTError(SWT.ERROR_INVALID_ARGUMENT);
 		}
 		int replaceCount = 0;
-		if (findNextInAll(word, caseSensitive, wholeWord, wrap)) {
-			while (replaceNextInAll(newWord, word, caseSensitive, wholeWord, wrap)>-1) {
+		beginBatch();
+		try {
+			if (findNextInAll(word, caseSensitive, wholeWord, wrap)) {
+				while (replaceNextInAll(newWord, word, caseSensitive, wholeWord, wrap)>-1) {
+					replaceCount++;
+				}
 				replaceCount++;
 			}
-			replaceCount++;
+		} finally {
+			endBatch();
 		}
 		return replaceCount;
 	}
 	
-	private boolean fixIndexForWholeWord(int index, int wordLen) {
+	private int[] getWholeWordOffsets(String word, boolean caseSensitive, boolean wholeWord) {
 		checkWidget();
-		char left  = 0;
-		char right = 0;
-		try {
-			left = editor.getTextRange(index-1, 1).charAt(0);
-		} catch (Exception e) {
-			left = 0;
-		}
-		
-		try {
-			right = editor.getTextRange(index+wordLen, 1).charAt(0);
-		} catch (Exception e) {
-			right = 0;
-		}
-		
-		if ((Character.isLetterOrDigit(left)||left=='_') 
-				|| (Character.isLetterOrDigit(right)||right=='_')) {
-			return true;
+		if (!wholeWord || lexer==null || !lexerUpToDate || !IdentifierIndex.isWord(word)) {
+			return null;
 		}
-		return false;
+		return lexer.getIdentifierIndex().getOffsets(word, caseSensitive);
 	}
-
-	private int regexFindIndex;
 	
-	/**
+	private int nextOffset(int[] offsets, int from, int scope) {
+		checkWidget();
+		int low  = 0;
+		int high = offsets.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (offsets[mid] < from) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int i=low; i<offsets.length; i++) {
+			if (isInScope(offsets[i], scope)) {
+				return offsets[i];
+			}
+		}
+		return -1;
+	}
+	
+	private int prevOffset(int[] offsets, int from, int scope) {
+		checkWidget();
+		int low  = 0;
+		int high = offsets.length;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (offsets[mid] <= from) {
+				low = mid+1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int i=low-1; i>=0; i--) {
+			if (isInScope(offsets[i], scope)) {
+				return offsets[i];
+			}
+		}
+		return -1;
+	}
+	
+	private boolean isInScope(int offset, int scope) {
+		checkWidget();
+		if ((scope&SCOPE_ALL)==SCOPE_ALL || lexer==null || !lexerUpToDate) {
+			return true;
+		}
+		RangeToken tk = lexer.getRangeTokenAt(offset);
+		if (tk == null || tk.kind == RangeToken.KIND_OTHER) {
+			return (scope&SCOPE_CODE) != 0;
+		} else if (tk.kind == RangeToken.KIND_COMMENT) {
+			return (scope&SCOPE_COMMENT) != 0;
+		} else {
+			return (scope&SCOPE_STRING) != 0;
+		}
+	}
+	
+	private boolean fixIndexForWholeWord(int index, int wordLen) {
+		checkWidget();
+		char left  = 0;
+		char right = 0;
+		try {
+			left = editor.getContent().getTextRange(index-1, 1).charAt(0);
+		} catch (Exception e) {
+			left = 0;
+		}
+		
+		try {
+			right = editor.getContent().getTextRange(index+wordLen, 1).charAt(0);
+		} catch (Exception e) {
+			right = 0;
+		}
+		
+		if ((Character.isLetterOrDigit(left)||left=='_') 
+				|| (Character.isLetterOrDigit(right)||right=='_')) {
+			return true;
+		}
+		return false;
+	}
+
+	private int regexFindIndex;
+	
+	/**
 	 * 全部文本内查找模式.
 	 * 
 	 * @param regex 查找的模式.
@@ -1298,8 +1793,7 @@ public class SigmaI extends Composite {
 		while (true) {
 			if (matcher.find(regexFindIndex)) {
 				regexFindIndex = matcher.end();
-				this.gotoLine(editor.getLineAtOffset(regexFindIndex));
-				editor.setSelection(matcher.start(), matcher.end());
+				selectDocumentRange(matcher.start(), matcher.end()-matcher.start());
 				return true;
 			}
 			
@@ -1341,13 +1835,55 @@ public class SigmaI extends Composite {
 		int flag = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
 		flag |= dotAll ? Pattern.DOTALL : 0; 
 		Pattern pattern = Pattern.compile(regex, flag);
-		Matcher matcher = pattern.matcher(editor.getSelectionText());
-		String  result  = matcher.replaceAll(fixEscape(replacement));
-		this.insert(result);
-		regexFindIndex = selection.x + result.length();
+		int[] range = folding.toDocumentRange(selection.x, selection.y);
+		int delta = replaceMatches(pattern, fixEscape(replacement), range[0], range[1]);
+		regexFindIndex = range[1] + delta;
+		selectDocumentRange(regexFindIndex, 0);
 		return this.findRegex(regex, caseSensitive, wrap, dotAll)?0:-2;
 	}
 	
+	/*
+	 * 替换文档的 [start, end) 中的匹配子串.
+	 * 
+	 * 只修改每个匹配子串本身, 从后向前替换, 所有修改在同一个批量编辑中完成,
+	 * 撤销时也只记录被修改的部分. 只有被修改的文本所在的折叠区域被展开. 返回文本长度的变化量.
+	 * */
+	private int replaceMatches(Pattern pattern, String replacement, int start, int end) {
+		checkWidget();
+		if (start >= end) return 0;
+		Matcher matcher = pattern.matcher(editor.getContent().getTextRange(start, end-start));
+		List<int[]>  spans = new ArrayList<>();
+		List<String> texts = new ArrayList<>();
+		// appendReplacement() 同时追加上一个匹配之后的未匹配文本, 展开的替换串在它之后.
+		StringBuilder scratch = new StringBuilder();
+		int last = 0;
+		while (matcher.find()) {
+			scratch.setLength(0);
+			matcher.appendReplacement(scratch, replacement);
+			String text = scratch.substring(matcher.start()-last);
+			last = matcher.end();
+			if (!text.contentEquals(matcher.group())) {
+				spans.add(new int[] {matcher.start(), matcher.end()});
+				texts.add(text);
+			}
+		}
+		if (spans.isEmpty()) return 0;
+		
+		int delta = 0;
+		beginBatch();
+		try {
+			for (int i=spans.size()-1; i>=0; i--) {
+				int[]  span = spans.get(i);
+				String text = texts.get(i);
+				replaceDocumentRange(start+span[0], span[1]-span[0], text);
+				delta += text.length() - (span[1]-span[0]);
+			}
+		} finally {
+			endBatch();
+		}
+		return delta;
+	}
+	
 	private String fixEscape(String replacement) {
 		checkWidget();
 		StringBuffer sb = new StringBuffer();
@@ -1407,10 +1943,7 @@ public class SigmaI extends Composite {
 		int flag = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
 		flag |= dotAll ? Pattern.DOTALL : 0; 
 		Pattern pattern = Pattern.compile(regex, flag);
-		Matcher matcher = pattern.matcher(editor.getText());
-		String  result  = matcher.replaceAll(fixEscape(replacement)); 
-		editor.selectAll();
-		this.insert(result);
+		replaceMatches(pattern, fixEscape(replacement), 0, editor.getContent().getCharCount());
 	}
 	
 	private boolean isReading;
@@ -1436,9 +1969,8 @@ public class SigmaI extends Composite {
 	 * */
 	public char rightCharOfCaret() {
 		checkWidget();
-		String text = editor.getText();
 		try {
-			return text.charAt(editor.getCaretOffset());
+			return editor.getTextRange(editor.getCaretOffset(), 1).charAt(0);
 		} catch (Exception e) {
 			return 0;	
 		}
@@ -1453,9 +1985,8 @@ public class SigmaI extends Composite {
 	 * */
 	public char leftCharOfCaret() {
 		checkWidget();
-		String text = editor.getText();
 		try {
-			return text.charAt(editor.getCaretOffset()-2);
+			return editor.getTextRange(editor.getCaretOffset()-2, 1).charAt(0);
 		} catch (Exception e) {
 			return 0;	
 		}
@@ -1495,21 +2026,162 @@ public class SigmaI extends Composite {
 		editor.insert(text);
 	}
 	
+	private int batchDepth;
+	private boolean batchModified;
+	
+	/*
+	 * 批量编辑中被修改的区域 [dirtyStart, dirtyEnd), 使用编辑区域当前文本的坐标, 包括被展开的折叠区域.
+	 * 区域之外的文本没有被修改, batchCharCount 是批量编辑开始时文档的长度.
+	 * */
+	private int dirtyStart;
+	private int dirtyEnd;
+	private int batchCharCount;
+	private boolean batchRestyleAll;
+	
+	private void markDirty(int start, int replaceCharCount, int newCharCount) {
+		checkWidget();
+		int delta = newCharCount - replaceCharCount;
+		if (dirtyStart < 0) {
+			dirtyStart = start;
+			dirtyEnd   = start + newCharCount;
+		} else {
+			dirtyEnd   = Math.max(dirtyEnd, start+replaceCharCount) + delta;
+			dirtyStart = Math.min(dirtyStart, start);
+		}
+	}
+	
+	/*
+	 * 判断文档中的 offset 是否位于某个跨行的区间 Token 内部.
+	 * */
+	private boolean isCrossedByRangeToken(int offset) {
+		checkWidget();
+		RangeToken tk = lexer.getRangeTokenAt(offset);
+		return tk!=null && tk.start<offset && offset<tk.end;
+	}
+	
+	/**
+	 * 开始批量编辑.
+	 * 
+	 * 在 endBatch() 之前, 对接受者文本的所有修改被合并: 词法高亮, 高亮当前行, 括号匹配,
+	 * 随笔提示等工作被推迟到 endBatch() 时只执行一次, 并且全部修改作为一步被撤销或重做.
+	 * <br>
+	 * beginBatch() 和 endBatch() 可以嵌套, 但必须成对调用, 只有最外层的 endBatch() 提交修改.
+	 * 
+	 * @see #runBatch(Runnable)
+	 * */
+	public void beginBatch() {
+		checkWidget();
+		if (batchDepth++ == 0) {
+			batchModified = false;
+			dirtyStart = -1;
+			dirtyEnd   = -1;
+			batchCharCount = editor.getContent().getCharCount();
+			batchRestyleAll = !lexerUpToDate;
+			editor.setRedraw(false);
+			wordCompleter.setSuspended(true);
+			undoMan.beginCompound();
+		}
+	}
+	
+	/**
+	 * 结束批量编辑.
+	 * 
+	 * 如果未调用 beginBatch(), 方法什么都不做.
+	 * */
+	public void endBatch() {
+		checkWidget();
+		if (batchDepth==0 || --batchDepth>0) {
+			return;
+		}
+		undoMan.endCompound();
+		try {
+			wordCompleter.setSuspended(false);
+			if (batchModified) {
+				batchModified = false;
+				try {
+					/*
+					 * 只重新设置被修改行的样式. 如果修改前有区间 Token (字符串, 注释等)
+					 * 跨越被修改行的边界, 修改可能影响其后的全部文本, 此时重新设置全部样式.
+					 * */
+					int start = -1;
+					int end   = -1;
+					if (!batchRestyleAll && lexer!=null && dirtyStart>=0) {
+						start = editor.getOffsetAtLine(editor.getLineAtOffset(dirtyStart));
+						int endLine = editor.getLineAtOffset(Math.min(dirtyEnd, editor.getCharCount()));
+						end = endLine+1<editor.getLineCount() ? 
+								editor.getOffsetAtLine(endLine+1) : editor.getCharCount();
+						// lexer 的解析结果仍然对应修改前的文档, end 之后的文本整体移动了文档长度的变化量.
+						int delta = editor.getContent().getCharCount() - batchCharCount;
+						if (isCrossedByRangeToken(folding.toDocumentOffset(start)) 
+								|| isCrossedByRangeToken(folding.toDocumentOffset(end)-delta)) {
+							start = -1;
+							end   = -1;
+						}
+					}
+					this.paintLexeme("FIXME", start, end);
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+			highLightCurrent();
+			matchBraces();
+			checkInComment(editor.getCaretOffset());
+		} finally {
+			editor.setRedraw(true);
+		}
+	}
+	
+	/**
+	 * 以批量编辑的方式执行 edits.
+	 * 
+	 * 相当于在 beginBatch() 和 endBatch() 之间执行 edits, 即使 edits 抛出异常, 批量编辑也会被结束.
+	 * 
+	 * @param edits 修改操作.
+	 * @exception SWTError <ul>
+	 * <li>SWT.ERROR_NULL_ARGUMENT - 如果 edits 为 null</li>
+	 * </ul>
+	 * */
+	public void runBatch(Runnable edits) {
+		checkWidget();
+		if (edits == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		beginBatch();
+		try {
+			edits.run();
+		} finally {
+			endBatch();
+		}
+	}
+	
+	/**
+	 * 判断当前是否处于批量编辑中.
+	 * 
+	 * @return 结果.
+	 * */
+	public boolean isBatching() {
+		checkWidget();
+		return batchDepth > 0;
+	}
+	
 	/**
 	 * 撤销操作.
 	 * */
 	public void undo() {
 		checkWidget();
 		if (undoMan.canUndo()) {
-			wordCompleter.enableWordCompleter(false);
-			undoMan.undo();
+			beginBatch();
+			try {
+				undoMan.undo();
+			} finally {
+				endBatch();
+			}
 			if (undoListener != null) {
 				UndoRedoEvent e = new UndoRedoEvent();
 				e.sigmai = this;
 				e.isUndo = true;
 				undoListener.undoRedo(e);
 			}
-			wordCompleter.enableWordCompleter(true);
 		}
 	}
 	
@@ -1529,15 +2201,18 @@ public class SigmaI extends Composite {
 	public void redo() {
 		checkWidget();
 		if (undoMan.canRedo()) {
-			wordCompleter.enableWordCompleter(false);
-			undoMan.redo();
+			beginBatch();
+			try {
+				undoMan.redo();
+			} finally {
+				endBatch();
+			}
 			if (undoListener != null) {
 				UndoRedoEvent e = new UndoRedoEvent();
 				e.sigmai = this;
 				e.isUndo = false;
 				undoListener.undoRedo(e);
 			}
-			wordCompleter.enableWordCompleter(true);
 		}
 	}
 	
@@ -1554,7 +2229,7 @@ public class SigmaI extends Composite {
 	/**
 	 * 设置最大允许可撤销操作的次数.
 	 * 
-	 * 默认为 1024.
+	 * 默认为 1024. 超出时最早的操作被逐个丢弃.
 	 * 
 	 * @param limit 指定的值.
 	 * */
@@ -1563,6 +2238,154 @@ public class SigmaI extends Composite {
 		undoMan.setUndoLimit(limit);
 	}
 	
+	/**
+	 * 设置撤销记录最多占用的内存, 以字节为单位.
+	 * 
+	 * 默认为 32MB. 超出时最早的操作被逐个丢弃, 但最近的一步操作总是被保留.
+	 * 
+	 * @param bytes 指定的值.
+	 * */
+	public void setUndoMemoryLimit(long bytes) {
+		checkWidget();
+		undoMan.setMemoryLimit(bytes);
+	}
+	
+	/**
+	 * 设置撤销操作的合并规则.
+	 * 
+	 * 连续输入或删除的单个字符被合并为一步可撤销操作. 如果两次输入的间隔超过 idleMillis 毫秒,
+	 * 或者 caret 跳转到其它位置, 或者输入换行, 开始新的一步;
+	 * 如果 breakAtWhitespace 为真, 在空白字符之后输入非空白字符时也开始新的一步.
+	 * <br>
+	 * idleMillis 为 0 时不合并. 默认为 1000 毫秒, breakAtWhitespace 为真.
+	 * 
+	 * @param idleMillis 合并的最大时间间隔.
+	 * @param breakAtWhitespace 在单词边界开始新的一步.
+	 * */
+	public void setUndoCoalescing(long idleMillis, boolean breakAtWhitespace) {
+		checkWidget();
+		undoMan.setCoalescing(idleMillis, breakAtWhitespace);
+	}
+	
+	/**
+	 * 开启或关闭撤销记录的磁盘缓存.
+	 * 
+	 * 开启后, 超出 setUndoLimit() 和 setUndoMemoryLimit() 限制的撤销记录不再被丢弃,
+	 * 而是被写入临时文件, 在撤销到该处时再读回, 内存占用不随撤销历史的长度增长.
+	 * 临时文件在关闭缓存或接受者被销毁时删除. 关闭时已写入文件的撤销记录被丢弃.
+	 * 
+	 * @param enable 参数.
+	 * */
+	public void setUndoSpillEnabled(boolean enable) {
+		checkWidget();
+		undoMan.setSpillEnabled(enable);
+	}
+	
+	/**
+	 * 获取文档的当前版本号.
+	 * 
+	 * 每一步可撤销操作完成后的文档状态有一个版本号, 沿当前的编辑分支连续编号:
+	 * 撤销使版本号减一, 重做使版本号加一. 撤销后的新输入使更新的版本失效.
+	 * 
+	 * @return 版本号.
+	 * */
+	public long getRevision() {
+		checkWidget();
+		return undoMan.getRevision();
+	}
+	
+	/**
+	 * 获取可以跳转到的最早版本号.
+	 * 
+	 * @return 版本号.
+	 * */
+	public long getFirstRevision() {
+		checkWidget();
+		return undoMan.getFirstRevision();
+	}
+	
+	/**
+	 * 获取可以跳转到的最新版本号.
+	 * 
+	 * @return 版本号.
+	 * */
+	public long getLastRevision() {
+		checkWidget();
+		return undoMan.getLastRevision();
+	}
+	
+	/**
+	 * 获取版本的记录时间, 即产生这个版本的操作开始的时间.
+	 * 
+	 * @param revision 版本号.
+	 * @return 以毫秒为单位的时间, 与 System.currentTimeMillis() 相同. 
+	 * 如果版本的记录不在内存中, 返回 -1.
+	 * */
+	public long getRevisionTime(long revision) {
+		checkWidget();
+		return undoMan.getRevisionTime(revision);
+	}
+	
+	/**
+	 * 查找在指定时刻的版本, 即记录时间不晚于 time 的最新版本.
+	 * 
+	 * 只查找内存中的撤销记录, 如果 time 早于它们, 返回内存中最早的版本.
+	 * 
+	 * @param time 以毫秒为单位的时间.
+	 * @return 版本号.
+	 * */
+	public long findRevisionAt(long time) {
+		checkWidget();
+		return undoMan.findRevisionAt(time);
+	}
+	
+	/**
+	 * 跳转到指定的版本.
+	 * 
+	 * 文档被直接修改为该版本的内容, 相当于连续撤销或重做到该版本, 但只产生一次文档修改和一次重绘.
+	 * 撤销器定期保存压缩的文档快照, 跳转从当前状态或者最近的快照出发, 耗时与跳过的步数基本无关.
+	 * 如果路径上的撤销记录已被写入磁盘, 则逐步撤销或重做.
+	 * 
+	 * @param revision 版本号.
+	 * 
+	 * @exception SWTError <ul>
+	 *    <li>SWT.ERROR_INVALID_RANGE - 如果 revision 不在 [getFirstRevision(), getLastRevision()] 之内.</li>
+	 * </ul>
+	 * */
+	public void gotoRevision(long revision) {
+		checkWidget();
+		if (revision<undoMan.getFirstRevision() || revision>undoMan.getLastRevision()) {
+			throw new SWTError(SWT.ERROR_INVALID_RANGE);
+		}
+		long current = undoMan.getRevision();
+		if (revision == current) return;
+		beginBatch();
+		try {
+			undoMan.gotoRevision(revision);
+		} finally {
+			endBatch();
+		}
+		if (undoListener != null) {
+			UndoRedoEvent e = new UndoRedoEvent();
+			e.sigmai = this;
+			e.isUndo = revision < current;
+			undoListener.undoRedo(e);
+		}
+	}
+	
+	/**
+	 * 设置文档快照的间隔.
+	 * 
+	 * 每隔 steps 步可撤销操作保存一个压缩的文档快照, 用于 gotoRevision() 的快速跳转.
+	 * 快照占用的内存计入 setUndoMemoryLimit() 的限制. 默认为 100, 0 表示不保存快照.
+	 * 
+	 * @param steps 步数.
+	 * */
+	public void setUndoCheckpointInterval(int steps) {
+		checkWidget();
+		undoMan.setCheckpointInterval(steps);
+	}
+	
 	/**
 	 * 设置获取焦点.
 	 * 
@@ -1634,68 +2457,369 @@ public class SigmaI extends Composite {
 			foldMargin.setTopPixel(editor.getTopPixel());
 			foldMargin.setInc(editor.getLineHeight());
 		}
+		if (lineMargin != null) {
+			TreeMap<Integer, Integer> hiddenLines = new TreeMap<>();
+			int hidden = 0;
+			for (var dot : folding.dots()) {
+				hidden += dot.hiddenLineCount;
+				hiddenLines.put(folding.toViewLine(dot.hiddenLine), hidden);
+			}
+			lineMargin.setHiddenLines(hiddenLines);
+		}
+	}
+	
+	/*
+	 * 可以折叠的区域, 键是区域的第一行.
+	 * */
+	private TreeMap<Integer, FoldDot> foldDots = new TreeMap<>();
+	
+	/*
+	 * 编辑区域的内容, 文档的投影.
+	 * */
+	private FoldingContent folding;
+	
+	/*
+	 * 当前文档修改的位置和被替换的文本, 由 ExtendedModify 事件提交给撤销器.
+	 * */
+	private int undoStart;
+	private String undoReplacedText;
+	
+	/*
+	 * 由 lexer 的 FoldToken 和已折叠的区域重建可折叠区域.
+	 * 至少能隐藏一行的区域才可以折叠, 同一行开始的区域只保留最外层的一个, 开始位置被隐藏的区域被跳过.
+	 * */
+	private void updateFoldDots() {
+		checkWidget();
+		foldDots.clear();
+		for (var dot : folding.dots()) {
+			dot.startLine = folding.toViewLine(dot.hiddenLine-1);
+			dot.endLine   = dot.startLine + 1;
+			foldDots.put(dot.startLine, dot);
+		}
+		StyledTextContent document = editor.getContent();
+		for (var ft : lexer.getFoldTokens()) {
+			if (folding.isHidden(ft.start)) {
+				continue;
+			}
+			int startLine = document.getLineAtOffset(ft.start);
+			int endLine   = document.getLineAtOffset(ft.end);
+			int viewLine  = folding.toViewLine(startLine);
+			if (endLine-startLine<2 || foldDots.containsKey(viewLine)) {
+				continue;
+			}
+			FoldDot dot = new FoldDot();
+			dot.startOffset = ft.start;
+			dot.endOffset = ft.end;
+			dot.startLine = viewLine;
+			dot.endLine   = folding.toViewLine(endLine);
+			foldDots.put(viewLine, dot);
+		}
+		if (foldMargin != null) {
+			foldMargin.cleanDots();
+			for (var dot : foldDots.values()) {
+				foldMargin.addFoldDots(dot);
+			}
+			foldMargin.redraw();
+		}
+	}
+	
+	/**
+	 * 折叠或展开从指定行开始的区域.
+	 * 
+	 * 可以折叠的区域由词法解析器的 FoldToken 确定, 如多行的 {} 和多行注释.
+	 * 折叠时, 区域第一行与最后一行之间的行被隐藏, 编辑区域只需排版和绘制可见的行.
+	 * <br>
+	 * 折叠只改变编辑区域显示的内容, 不修改文档: getText() 和 getStyledText().getText() 都返回全部文本,
+	 * 不产生 Modify, ExtendedModify 事件和文档的 TextChange 事件, 不进入撤销记录, 也不重新进行词法解析.
+	 * 修改文档时折叠区域随文本移动, 被删除的文本中的折叠区域一起被删除.
+	 * 查找, 替换, 撤销, 重做以及 gotoLine() 只展开包含目标位置的折叠区域.
+	 * 
+	 * @param line 区域的第一行, 为编辑区域中显示的行.
+	 * @return 如果 line 开始的区域被折叠或展开, 返回真; 否则返回假.
+	 * */
+	public boolean toggleFold(int line) {
+		checkWidget();
+		FoldDot dot = foldDots.get(line);
+		if (dot == null) {
+			return false;
+		}
+		if (dot.folded) {
+			expand(dot);
+		} else if (lexerUpToDate) {
+			collapse(dot);
+		} else {
+			return false;
+		}
+		foldsChanged();
+		return true;
+	}
+	
+	/**
+	 * 折叠全部最外层区域.
+	 * */
+	public void collapseAllFolds() {
+		checkWidget();
+		if (!lexerUpToDate) {
+			return;
+		}
+		List<FoldDot> outermost = new ArrayList<>();
+		int lastEnd = -1;
+		for (var dot : foldDots.values()) {
+			if (dot.startLine >= lastEnd) {
+				outermost.add(dot);
+				lastEnd = dot.endLine;
+			}
+		}
+		beginBatch();
+		try {
+			for (var dot : outermost) {
+				if (!dot.folded) {
+					collapse(dot);
+				}
+			}
+			foldsChanged();
+		} finally {
+			endBatch();
+		}
+	}
+	
+	/**
+	 * 展开全部折叠区域.
+	 * */
+	public void expandAllFolds() {
+		checkWidget();
+		if (folding.dots().isEmpty()) {
+			return;
+		}
+		beginBatch();
+		try {
+			for (var dot : new ArrayList<>(folding.dots())) {
+				expand(dot);
+			}
+			foldsChanged();
+		} finally {
+			endBatch();
+		}
+	}
+	
+	/**
+	 * 获取全部文本.
+	 * 
+	 * 与 getStyledText().getText() 相同, 结果包括被折叠隐藏的文本.
+	 * 
+	 * @return 文本.
+	 * */
+	public String getText() {
+		checkWidget();
+		return editor.getText();
+	}
+	
+	/*
+	 * 展开被隐藏的文本与文档的 [start, end) 相交的区域, start 等于 end 时展开包含 start 的区域.
+	 * */
+	private void revealRange(int start, int end) {
+		checkWidget();
+		List<FoldDot> dots = folding.intersecting(start, end);
+		if (dots.isEmpty()) {
+			return;
+		}
+		for (var dot : dots) {
+			expand(dot);
+		}
+		foldsChanged();
+	}
+	
+	/*
+	 * 修改文档的 [start, start+length), 只展开与被修改的文本相交的折叠区域.
+	 * */
+	private void replaceDocumentRange(int start, int length, String text) {
+		checkWidget();
+		revealRange(start, start+length);
+		editor.replaceTextRange(folding.toViewOffset(start), length, text);
+	}
+	
+	/*
+	 * 展开被隐藏的文本位于选择区域中的折叠区域, 按行处理选择区域时不会删除被隐藏的行.
+	 * */
+	private void expandFoldsInSelection() {
+		checkWidget();
+		Point selection = editor.getSelection();
+		int[] range = folding.toDocumentRange(selection.x, selection.y);
+		revealRange(range[0], range[1]);
+	}
+	
+	/*
+	 * 隐藏区域第一行与最后一行之间的行. 调用者随后调用 foldsChanged().
+	 * */
+	private void collapse(FoldDot dot) {
+		checkWidget();
+		StyledTextContent document = editor.getContent();
+		int startLine = document.getLineAtOffset(dot.startOffset);
+		int endLine   = document.getLineAtOffset(dot.endOffset);
+		dot.hiddenStart  = document.getOffsetAtLine(startLine+1);
+		dot.hiddenLength = document.getOffsetAtLine(endLine) - dot.hiddenStart;
+		dot.hiddenLine   = startLine + 1;
+		dot.hiddenLineCount = endLine - startLine - 1;
+		unBoxHalf();
+		folding.fold(dot);
+	}
+	
+	/*
+	 * 显示区域被隐藏的行. 文档没有改变, 被显示的文本直接使用 lexer 现有的解析结果设置样式.
+	 * 调用者随后调用 foldsChanged().
+	 * */
+	private void expand(FoldDot dot) {
+		checkWidget();
+		unBoxHalf();
+		int start = folding.unfold(dot);
+		if (lexer!=null && lexerUpToDate) {
+			restyle(start, start+dot.hiddenLength);
+		}
+	}
+	
+	/*
+	 * 折叠或展开之后, 更新折叠标记, 单词标记和括号匹配.
+	 * */
+	private void foldsChanged() {
+		checkWidget();
+		if (lexer != null) {
+			updateFoldDots();
+			updateWordFixes();
+		}
+		if (batchDepth == 0) {
+			matchBraces();
+		}
 	}
 	
 	
-	private Set<MultiCommentToken> cacheCommentRanges;
+	private RangeIndex cacheCommentRanges;
+	
+	/*
+	 * lexer 的解析结果是否对应当前文本.
+	 * */
+	private boolean lexerUpToDate;
 	
 	/**
 	 * 进行词法高亮.
 	 * */
 	private void paintLexeme(String highLightWord) {
+		checkWidget();
+		paintLexeme(highLightWord, -1, -1);
+	}
+	
+	/**
+	 * 进行词法高亮.
+	 * 
+	 * 只重新设置编辑区域中 [start, end) 的样式, start 和 end 必须位于行首(或文本末尾).
+	 * 如果 start 为 -1, 或者有区间 Token 跨越 start 或 end, 重新设置全部样式.
+	 * lexer 解析的是文档的全部文本, 包括被折叠隐藏的文本.
+	 * */
+	private void paintLexeme(String highLightWord, int start, int end) {
 		checkWidget();
 		if (lexer != null) {
 			cacheCommentRanges = null;
 			lexer.tokenization(0, editor.getText(), highLightWord);
-			Iterator<Token> styleTokens = lexer.getTokens().iterator();
-			List<Integer> wordFixList = new ArrayList<>();
-			StylePalette stylePalette = lexer.getStylePalette();
-			//System.out.println(styleTokens+"#");
-			StyleRange[] styles = new StyleRange[lexer.getTokens().size()];
-			for (int i=0; i<styles.length; i++) {
-				Token token = styleTokens.next();	
-				styles[i] = new StyleRange();
-				styles[i].start  = token.start;
-				styles[i].length = token.length;
-				if (stylePalette != null) {
-					StylePalette.Style style = stylePalette.getStyle(token.type);
-					styles[i].foreground = style.color;
-					styles[i].fontStyle  = style.fontStyle;
-				}
-				if (token.isHighLightWord) {
-					styles[i].background = highLightWordColor;
-					wordFixList.add(editor.getLineAtOffset(styles[i].start));
-				}
+			lexerUpToDate = true;
+			lexerWordIndex = null;
+			if (start>=0 && (isCrossedByRangeToken(folding.toDocumentOffset(start)) 
+					|| isCrossedByRangeToken(folding.toDocumentOffset(end)))) {
+				start = -1;
+			}
+			if (start>=0 && isBracketDepthShifted(lexer.getTokens(), lexer.getStylePalette(), end)) {
+				end = editor.getCharCount();
+			}
+			if (start < 0) {
+				start = 0;
+				end   = editor.getCharCount();
 			}
-			editor.replaceStyleRanges(0, editor.getCharCount(), styles);
-			editor.redraw();
+			restyle(start, end);
 			
 			if (lexer.isSupportMultiComment()) {
-				cacheCommentRanges = lexer.getMultiCommentTokenList();
+				cacheCommentRanges = lexer.getMultiCommentIndex();
 			}
 			
-			if (foldMargin != null) {
-				foldMargin.cleanDots();
-				TreeSet<FoldToken> foldTokens = lexer.getFoldTokens();
-				for (var ft : foldTokens) {
-					FoldDot dot = new FoldDot();
-					dot.startOffset = ft.start;
-					dot.endOffset = ft.end;
-					dot.startLine = editor.getLineAtOffset(ft.start);
-					dot.endLine   = editor.getLineAtOffset(ft.end);
-					foldMargin.addFoldDots(dot);
+			updateFoldDots();
+			updateWordFixes();
+		}
+	}
+	
+	/*
+	 * 按 lexer 的解析结果重新设置编辑区域中 [start, end) 的样式.
+	 * */
+	private void restyle(int start, int end) {
+		checkWidget();
+		StylePalette stylePalette = lexer.getStylePalette();
+		List<StyleRange> styles = new ArrayList<>();
+		for (Token token : lexer.getTokens()) {
+			int tokenStart = folding.toViewOffset(token.start);
+			int tokenEnd   = folding.toViewOffset(token.start+token.length);
+			if (tokenEnd<=start || tokenStart>=end || tokenStart==tokenEnd) {
+				continue;
+			}
+			StyleRange style = new StyleRange();
+			style.start  = Math.max(tokenStart, start);
+			style.length = Math.min(tokenEnd, end) - style.start;
+			if (stylePalette != null) {
+				StylePalette.Style s = stylePalette.getBracketStyle(token.depth);
+				if (s == null) {
+					s = stylePalette.getStyle(token.type);
 				}
-				foldMargin.redraw();
+				style.foreground = s.color;
+				style.fontStyle  = s.fontStyle;
 			}
-			
-			wordFixMargin.setFixList(wordFixList);
-			wordFixMargin.setMaxLine(editor.getLineCount());
-			wordFixMargin.redraw();
+			if (token.isHighLightWord) {
+				style.background = highLightWordColor;
+			}
+			styles.add(style);
+		}
+		editor.replaceStyleRanges(start, end-start, styles.toArray(new StyleRange[styles.size()]));
+		editor.redraw();
+	}
+	
+	/*
+	 * 在 wordFixMargin 上标记高亮单词所在的行, 被折叠隐藏的单词不标记.
+	 * */
+	private void updateWordFixes() {
+		checkWidget();
+		List<Integer> wordFixList = new ArrayList<>();
+		for (Token token : lexer.getTokens()) {
+			if (token.isHighLightWord && !folding.isHidden(token.start)) {
+				wordFixList.add(editor.getLineAtOffset(folding.toViewOffset(token.start)));
+			}
+		}
+		wordFixMargin.setFixList(wordFixList);
+		wordFixMargin.setMaxLine(editor.getLineCount());
+		wordFixMargin.redraw();
+	}
+	
+	/*
+	 * 修改增减了括号时, 之后的括号的嵌套深度整体改变, 它们的样式也需要重新设置.
+	 * 深度的改变对之后的每个括号都相同, 所以只需检查 end 之后的第一个括号的颜色.
+	 * */
+	private boolean isBracketDepthShifted(TreeSet<Token> tokens, StylePalette stylePalette, int end) {
+		checkWidget();
+		if (stylePalette==null || !stylePalette.hasBracketStyles()) {
+			return false;
 		}
+		Token probe = new Token();
+		probe.start = folding.toDocumentOffset(end);
+		for (Token token : tokens.tailSet(probe, true)) {
+			if (token.depth>=0 && !folding.isHidden(token.start)) {
+				StyleRange style = editor.getStyleRangeAtOffset(folding.toViewOffset(token.start));
+				Color color = style==null ? null : style.foreground;
+				return !Objects.equals(color, stylePalette.getBracketStyle(token.depth).color);
+			}
+		}
+		return false;
 	}
 	
 	private String newText;
 	
+	/*
+	 * 文本修改过程中为真, 此时 caret 的移动不是 caret 跳转.
+	 * */
+	private boolean isChangingContent;
+	
 	private boolean isInComment;
 	
 	/*
@@ -1706,15 +2830,7 @@ public class SigmaI extends Composite {
 	
 	private void checkInComment(int offset) {
 		checkWidget();
-		isInComment = false;
-		if (cacheCommentRanges != null) {
-			for (var p : cacheCommentRanges) {
-				if (offset>=p.start && offset<p.end) {
-					isInComment = true;
-					break;
-				}
-			}
-		}
+		isInComment = cacheCommentRanges!=null && cacheCommentRanges.contains(folding.toDocumentOffset(offset));
 		if (isInComment) {
 			// FIXME 在注释区域才使用英语单词.
 			wordCompleter.showVocabulary = true;
@@ -1730,9 +2846,19 @@ public class SigmaI extends Composite {
 			normalCaret.dispose();
 			overWriteCaret.dispose();
 			wordPane.dispose();
+			wordCompleter.dispose();
+			undoMan.dispose();
 		});
 		
 		editor.addModifyListener(e->{
+			if (incrementalSearch != null) {
+				incrementalSearch.invalidate();
+			}
+			if (batchDepth > 0) {
+				batchModified = true;
+				lexerUpToDate = false;
+				return;
+			}
 			this.highLightCurrent();
 			try {
 				this.paintLexeme("FIXME");
@@ -1799,18 +2925,21 @@ public class SigmaI extends Composite {
 		});
 		
 		editor.addCaretListener(e->{
+			if (!isChangingContent) {
+				undoMan.caretMoved(folding.toDocumentOffset(e.caretOffset));
+			}
+			if (batchDepth > 0) return;
 			highLightCurrent();
 			matchBraces();
 			checkInComment(e.caretOffset);
 		});
 		
-		editor.getContent().addTextChangeListener(wordCompleter);
+		folding.addDocumentListener(wordCompleter);
 		editor.addKeyListener(wordCompleter);
 		editor.addMouseListener(wordCompleter);
 		editor.addVerifyKeyListener(wordCompleter);
 		editor.addKeyListener(wordCompleter);
 		editor.addMouseListener(wordCompleter);
-		editor.addModifyListener(wordCompleter);
 		editor.addVerifyListener(wordCompleter);
 		
 		if (lineMargin != null) {
@@ -1825,75 +2954,84 @@ public class SigmaI extends Composite {
 			});
 			
 			lineMargin.setClickListener(e->{
-				try {
-					editor.setFocus();
-					gotoLine(e);
-				} catch (Throwable ex) {
-					gotoLine(editor.getLineCount()-1);
-				}
+				// 点击的是编辑区域中显示的行, 不需要展开折叠区域.
+				editor.setFocus();
+				int line = Math.max(0, Math.min(e, editor.getLineCount()-1));
+				editor.setSelection(editor.getOffsetAtLine(line));
+			});
+		}
+		
+		if (foldMargin != null) {
+			foldMargin.setClickListener(e->{
+				toggleFold(e);
 			});
 		}
 		
 		undoMan.setUndoListener(new UndoListener() {
 
 			@Override
-			public void onUndo0(UndoInfo info) {
-				editor.setSelectionRange(info.pos, info.newText.length());
-				SigmaI.this.insert(info.replacedText);
-				editor.setSelectionRange(info.pos, info.replacedText.length());
+			public String getText(int start, int length) {
+				return editor.getContent().getTextRange(start, length);
 			}
 
 			@Override
-			public void onRedo0(UndoInfo info) {
-				editor.setSelectionRange(info.pos, info.replacedText.length());
-				SigmaI.this.insert(info.newText);
-				editor.setSelectionRange(info.pos, info.newText.length());
+			public void apply(int start, int length, String text, int selection, int selectionLength) {
+				replaceDocumentRange(start, length, text);
+				if (selection != -1) {
+					revealRange(selection, selection+selectionLength);
+					int viewStart = folding.toViewOffset(selection);
+					editor.setSelectionRange(viewStart, folding.toViewOffset(selection+selectionLength)-viewStart);
+				}
 			}
 
 			@Override
-			public void onUndo1(UndoInfo info) {
-				editor.setSelectionRange(info.pos, info.newText.length());
-				SigmaI.this.insert("");
-				editor.setSelection(info.pos);
+			public int getCharCount() {
+				return editor.getContent().getCharCount();
 			}
-
+		});
+		
+		// 编辑区域的修改, 包括折叠和展开, 使用编辑区域的坐标.
+		editor.getContent().addTextChangeListener(new TextChangeListener() {
 			@Override
-			public void onRedo1(UndoInfo info) {
-				editor.setSelection(info.pos);
-				SigmaI.this.insert(info.newText);
-				editor.setSelectionRange(info.pos, info.newText.length());
+			public void textChanging(TextChangingEvent event) {
+				if (batchDepth > 0) {
+					markDirty(event.start, event.replaceCharCount, event.newCharCount);
+				}
 			}
-
 			@Override
-			public void onUndo2(UndoInfo info) {
-				editor.setSelection(info.pos);
-				SigmaI.this.insert(info.replacedText);
-				editor.setSelectionRange(info.pos, info.replacedText.length());
-			}
-
+			public void textChanged(TextChangedEvent event) {}
 			@Override
-			public void onRedo2(UndoInfo info) {
-				editor.setSelectionRange(info.pos, info.replacedText.length());
-				SigmaI.this.insert("");
-				editor.setSelection(info.pos);
+			public void textSet(TextChangedEvent event) {
+				if (batchDepth > 0) {
+					batchRestyleAll = true;
+				}
 			}
+			
 		});
 		
-		editor.getContent().addTextChangeListener(new TextChangeListener() {
+		// 文档的修改, 使用文档的坐标; 撤销器记录的是文档的修改.
+		folding.addDocumentListener(new TextChangeListener() {
 			@Override
 			public void textChanging(TextChangingEvent event) {
-				newText = event.newText;				
+				newText = event.newText;
+				undoStart = event.start;
+				undoReplacedText = editor.getContent().getTextRange(event.start, event.replaceCharCount);
+				isChangingContent = true;
 			}
 			@Override
 			public void textChanged(TextChangedEvent event) {}
 			@Override
-			public void textSet(TextChangedEvent event) {}
+			public void textSet(TextChangedEvent event) {
+				undoStart = 0;
+				undoReplacedText = "";
+			}
 			
 		});
 		
 		editor.addExtendedModifyListener(e->{
+			isChangingContent = false;
 			if (!isReading) {
-				undoMan.addUndoInfo(e.start, e.replacedText, newText);
+				undoMan.addUndoInfo(undoStart, undoReplacedText, newText);
 			}
 		});
 		
@@ -1904,10 +3042,13 @@ public class SigmaI extends Composite {
 			 * SWT StyledText 组件特性, 当在 StyledText 有选择文本时使用
 			 * IME 输入文本, 被选择文本会被替换, 但 StyledText 的ExtendedModifyListener,
 			 *    无法获取被替换的文本, 会导致 UndoManager 出现错误.
+			 * 
+			 * 此时选择文本还没有被替换, 所以记录为尚未进行的修改.
 			 * */
-			int    start 		= editor.getSelectionRange().x; // 这里必须将 start 设为选择文本的开始.
-			String replacedText = editor.getSelectionText();
-			undoMan.addUndoInfo(start, replacedText, null);
+			Point  selection    = editor.getSelection(); // 这里必须将 start 设为选择文本的开始.
+			int[]  range        = folding.toDocumentRange(selection.x, selection.y);
+			String replacedText = editor.getContent().getTextRange(range[0], range[1]-range[0]);
+			undoMan.addUndoInfo(range[0], replacedText, null, false);
 		});
 		
 		editor.addVerifyListener(new VerifyListener() {
@@ -1924,10 +3065,13 @@ public class SigmaI extends Composite {
 
 			@Override
 			public void mouseDoubleClick(MouseEvent e) {
+				String word = wordPane.getSelection();
+				if (word == null) return;
 				String inputWord = getWordAtOffset(editor.getCaretOffset());
 				int wordStart = getWordStart();
 				editor.setSelectionRange(wordStart, inputWord.length());
-				insert(wordPane.getSelection());
+				insert(word);
+				wordCompleter.accepted(word);
 				hideCompleteWordPane();
 			}
 		});
@@ -2242,7 +3386,9 @@ public class SigmaI extends Composite {
 
 	private void createEditor() {
 		checkWidget();
-		editor = new StyledText(this, SWT.V_SCROLL|SWT.H_SCROLL|SWT.FULL_SELECTION);
+		FoldingText text = new FoldingText(this, SWT.V_SCROLL|SWT.H_SCROLL|SWT.FULL_SELECTION);
+		folding = text.getFoldingContent();
+		editor  = text;
 		FormData data = new FormData();
 		data.top      = new FormAttachment(0);
 		
@@ -2289,18 +3435,17 @@ public class SigmaI extends Composite {
 		int flag = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
 		flag |= dotAll ? Pattern.DOTALL : 0; 
 		Pattern pattern = Pattern.compile(regex, flag);
-		Matcher matcher = pattern.matcher(editor.getSelectionText());
-		int selectionStart = editor.getSelection().x;
-		String  result  = matcher.replaceAll(fixEscape(replacement)); 
-		this.insert(result);
-		editor.setSelectionRange(selectionStart, result.length());
+		Point selection = editor.getSelection();
+		int[] range = folding.toDocumentRange(selection.x, selection.y);
+		int delta = replaceMatches(pattern, fixEscape(replacement), range[0], range[1]);
+		editor.setSelection(folding.toViewOffset(range[0]), folding.toViewOffset(range[1]+delta));
 	}
 	
 	/**
 	 * 获取当前光标当前行和列.
 	 * 
 	 * 获取光标位置, 如果 tabAsOne 为真, 函数将 tab 视为一个字符; 否则被视为当前 tab 宽度.
-	 * 返回结果, Point.x 为行, Point.y 为列, 计数从 0 开始.
+	 * 返回结果, Point.x 为行, Point.y 为列, 计数从 0 开始. 行是文档中的行, 被折叠隐藏的行也被计数.
 	 * 
 	 * @param tabAsOne 是否将 tab 视为 1 个字符.
 	 * @return 光标所处位置.
@@ -2310,7 +3455,7 @@ public class SigmaI extends Composite {
 		int offset = editor.getCaretOffset();
 		int row    = editor.getLineAtOffset(offset);
 		int colTabAsOne = offset - editor.getOffsetAtLine(row);
-		if (tabAsOne) return new Point(row, colTabAsOne);
+		if (tabAsOne) return new Point(folding.toDocumentLine(row), colTabAsOne);
 		char[] line = editor.getLine(row).toCharArray();
 		int col = 0; 
 		for (int i=0; i<colTabAsOne; i++) {
@@ -2324,7 +3469,7 @@ public class SigmaI extends Composite {
 				col++;
 			}
 		}
-		return new Point(row, col);
+		return new Point(folding.toDocumentLine(row), col);
 	}
 	
 	/**
@@ -2360,6 +3505,7 @@ public class SigmaI extends Composite {
 	 * */
 	public void sortLines() {
 		checkWidget();
+		expandFoldsInSelection();
 		Point selection = editor.getSelection();
 		if (selection.x == selection.y) return; // no selection.
 		int startLine = editor.getLineAtOffset(selection.x);
@@ -2388,6 +3534,7 @@ public class SigmaI extends Composite {
 	 * */
 	public void revolveLines() {
 		checkWidget();
+		expandFoldsInSelection();
 		Point selection = editor.getSelection();
 		if (selection.x == selection.y) return; // no selection.
 		int startLine = editor.getLineAtOffset(selection.x);
@@ -2415,6 +3562,7 @@ public class SigmaI extends Composite {
 	 * */
 	public void splitLines() {
 		checkWidget();
+		expandFoldsInSelection();
 		Point selection = editor.getSelection();
 		if (selection.x == selection.y) return; // no selection.
 		int startLine = editor.getLineAtOffset(selection.x);
@@ -2498,6 +3646,7 @@ public class SigmaI extends Composite {
 	 * */
 	public void joinLines() {
 		checkWidget();
+		expandFoldsInSelection();
 		Point selection = editor.getSelection();
 		if (selection.x == selection.y) return; // no selection.
 		int startLine = editor.getLineAtOffset(selection.x);
@@ -0,0 +1,98 @@
+package org.sigmai;
+
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * 进程内共享的符号字典.
+ *
+ * 字典有两个用途:
+ * <br>
+ * 1. 开启共享的文档把自己的单词加入字典, 字典记录每个单词出现在几个文档中,
+ * 单词在最后一个文档中消失时从字典中移除. 所以随笔提示可以看到其它打开的文件中的单词.
+ * 单词保存在 ConcurrentSkipListMap 中, 可以在后台线程中直接遍历, 不需要快照.
+ * <br>
+ * 2. 基本单词列表和词汇表按内容驻留: 内容相同的单词列表只保存一份 PrefixIndex,
+ * 由引用计数管理, 最后一个使用者释放后被丢弃.
+ * */
+final class SymbolDictionary {
+	
+	static final SymbolDictionary INSTANCE = new SymbolDictionary();
+	
+	private ConcurrentSkipListMap<String, Integer> documentWords = new ConcurrentSkipListMap<>();
+	
+	private ConcurrentHashMap<Key, Entry> interned = new ConcurrentHashMap<>();
+	
+	private SymbolDictionary() {
+	}
+	
+	/*
+	 * 共享文档中的全部单词, 可以并发读取.
+	 * */
+	NavigableSet<String> words() {
+		return documentWords.navigableKeySet();
+	}
+	
+	/*
+	 * 单词在一个文档中出现(delta 为 1)或消失(delta 为 -1).
+	 * */
+	void update(String word, int delta) {
+		documentWords.merge(word, delta, (a, b)->a+b<=0 ? null : a+b);
+	}
+	
+	/*
+	 * 驻留单词列表, 返回内容相同的共享索引. 使用者不再需要时必须调用 release().
+	 * */
+	PrefixIndex intern(PrefixIndex index) {
+		if (index.size() == 0) return PrefixIndex.EMPTY;
+		Key key = new Key(index);
+		Entry entry = interned.compute(key, (k, e)->{
+			if (e == null) e = new Entry(index);
+			e.references++;
+			return e;
+		});
+		return entry.index;
+	}
+	
+	void release(PrefixIndex index) {
+		if (index.size() == 0) return;
+		interned.computeIfPresent(new Key(index), (k, e)->{
+			if (e.index != index) return e;
+			return --e.references==0 ? null : e;
+		});
+	}
+	
+	private static class Entry {
+		PrefixIndex index;
+		int references;
+		
+		Entry(PrefixIndex index) {
+			this.index = index;
+		}
+	}
+	
+	/*
+	 * 按单词列表的内容比较的键.
+	 * */
+	private static class Key {
+		String[] words;
+		int hash;
+		
+		Key(PrefixIndex index) {
+			this.words = index.words();
+			this.hash  = Arrays.hashCode(words);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key k && hash==k.hash && Arrays.equals(words, k.words);
+		}
+	}
+}
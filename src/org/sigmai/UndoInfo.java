@@ -0,0 +1,146 @@
+package org.sigmai;
+
+class UndoInfo {
+	int pos;
+	boolean isAdd;
+	boolean isBoth;
+	
+	/*
+	 * 复合操作编号, 0 表示不属于任何复合操作.
+	 * */
+	int group;
+	
+	/*
+	 * 是否是一步操作的第一条记录, 复合操作的后续记录为假.
+	 * */
+	boolean first;
+	
+	/*
+	 * 第一条记录保存这一步完成后的版本号, 以及这一步开始的时间.
+	 * */
+	long revision;
+	long time;
+	
+	/*
+	 * 文本保存在 UndoTextStore 中, 长度为 -1 表示 null.
+	 * */
+	private UndoTextStore store;
+	private long newTextPos;
+	private int  newTextLen;
+	private long replacedTextPos;
+	private int  replacedTextLen;
+	
+	/*
+	 * 正在合并的连续输入或删除, 不为 null 时文本保存在这里, 封闭时才写入 UndoTextStore.
+	 * */
+	private StringBuilder run;
+	
+	/*
+	 * 从磁盘读回的记录不使用 UndoTextStore, 文本直接保存在这里.
+	 * */
+	private boolean detached;
+	private String  detachedNewText;
+	private String  detachedReplacedText;
+	
+	UndoInfo(int pos, String newText, String replacedText, int group, boolean first) {
+		this.pos = pos;
+		this.isAdd = newText!=null && replacedText==null;
+		this.isBoth = newText!=null && replacedText!=null;
+		this.group = group;
+		this.first = first;
+		this.detached = true;
+		this.detachedNewText = newText;
+		this.detachedReplacedText = replacedText;
+		this.newTextLen = newText==null ? -1 : newText.length();
+		this.replacedTextLen = replacedText==null ? -1 : replacedText.length();
+	}
+	
+	UndoInfo(UndoTextStore store, int pos, String newText, String replacedText) {
+		this.store = store;
+		this.pos = pos;
+		this.isAdd = newText!=null && replacedText==null;
+		this.isBoth = newText!=null && replacedText!=null;
+		this.newTextLen = newText==null ? -1 : newText.length();
+		this.newTextPos = newText==null ? store.end() : store.append(newText);
+		this.replacedTextLen = replacedText==null ? -1 : replacedText.length();
+		this.replacedTextPos = replacedText==null ? store.end() : store.append(replacedText);
+	}
+	
+	String newText() {
+		if (detached) return detachedNewText;
+		if (run != null && isAdd) return run.toString();
+		return newTextLen<0 ? null : store.get(newTextPos, newTextLen);
+	}
+	
+	String replacedText() {
+		if (detached) return detachedReplacedText;
+		if (run != null && !isAdd) return run.toString();
+		return replacedTextLen<0 ? null : store.get(replacedTextPos, replacedTextLen);
+	}
+	
+	/*
+	 * 向连续输入(或删除)的记录添加一个字符, prepend 为真时字符位于开头(退格删除).
+	 * 记录必须是最后一条记录.
+	 * */
+	void extend(char c, boolean prepend) {
+		if (run == null) {
+			run = new StringBuilder(isAdd ? newText() : replacedText());
+			store.truncate(textStart());
+		}
+		if (prepend) {
+			run.insert(0, c);
+			pos--;
+		} else {
+			run.append(c);
+		}
+		if (isAdd) {
+			newTextLen++;
+		} else {
+			replacedTextLen++;
+		}
+	}
+	
+	/*
+	 * 结束合并, 把文本写入 UndoTextStore.
+	 * */
+	void seal() {
+		if (run != null) {
+			if (isAdd) {
+				newTextPos = store.append(run.toString());
+			} else {
+				replacedTextPos = newTextPos = store.append(run.toString());
+			}
+			run = null;
+		}
+	}
+	
+	int newTextLength() {
+		return Math.max(newTextLen, 0);
+	}
+	
+	int replacedTextLength() {
+		return Math.max(replacedTextLen, 0);
+	}
+	
+	boolean isDetached() {
+		return detached;
+	}
+	
+	/*
+	 * 记录的文本在 UndoTextStore 中的开始位置.
+	 * */
+	long textStart() {
+		return newTextPos;
+	}
+	
+	/*
+	 * 记录占用的内存估计值.
+	 * */
+	long byteSize() {
+		return 64 + 2L*(newTextLength()+replacedTextLength());
+	}
+	
+	public String toString() {
+		return "{" + pos + "," + newText() + "," + replacedText() + "," + isAdd + "," + isBoth + "}";
+	}
+}
@@ -1,52 +1,69 @@
 package org.sigmai;
 
-import java.util.Stack;
-
-class UndoInfo {
-	int pos;
-	String newText;
-	String replacedText;
-	boolean isAdd;
-	boolean isBoth;
-	
-	UndoInfo(int pos, String newText, String replacedText) {
-		this.pos = pos;
-		this.newText = newText;
-		this.replacedText = replacedText;
-		this.isAdd = this.newText!=null && this.replacedText==null;
-		this.isBoth = this.newText!=null && this.replacedText!=null;
-	}
-	
-	public String toString() {
-		return "{" + pos + "," + newText + "," + replacedText + "," + isAdd + "," + isBoth + "}";
-	}
-}
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 interface UndoListener {
-	void onUndo0(UndoInfo info);
-	void onRedo0(UndoInfo info);
+	/*
+	 * 获取文档中 [start, start+length) 的文本.
+	 * */
+	String getText(int start, int length);
 	
-	void onUndo1(UndoInfo info);
-	void onRedo1(UndoInfo info);
+	/*
+	 * 用 text 替换文档中 [start, start+length) 的文本.
+	 * 如果 selection 不为 -1, 然后选择 [selection, selection+selectionLength).
+	 * */
+	void apply(int start, int length, String text, int selection, int selectionLength);
 	
-	void onUndo2(UndoInfo info);
-	void onRedo2(UndoInfo info);
+	/*
+	 * 获取文档的字符数.
+	 * */
+	int getCharCount();
 }
 
+/*
+ * 撤销管理器.
+ *
+ * 撤销记录保存在一个环形缓冲区中: [0, cursor) 是可撤销的记录, [cursor, size) 是可重做的记录.
+ * 记录的步数超过 undoLimit 或者占用的内存超过 memoryLimit 时, 最早的一步被丢弃,
+ * 但最新的一步总是被保留.
+ * <br>
+ * 开启磁盘缓存后, 超出的记录不再被丢弃, 而是被写入临时文件: 最早的记录进入 undoSpill,
+ * 撤销到内存中最早的记录之前时再读回; 读回时内存中最新的可重做记录进入 redoSpill.
+ * 内存中的记录始终受 undoLimit 和 memoryLimit 限制.
+ * <br>
+ * 每一步完成后的文档状态有一个版本号, 沿当前的编辑分支连续编号, 新的输入使比当前版本新的版本失效.
+ * 每隔 checkpointInterval 步保存一个压缩的文档快照(检查点), gotoRevision 从当前状态
+ * 或者最近的检查点出发, 把路径上的全部修改合并为一次替换, 而不是逐步撤销或重做.
+ * 检查点占用的内存计入 memoryLimit.
+ * */
 class UndoManager {
-
-	private Stack<UndoInfo> undoStack;
-	private Stack<UndoInfo> redoStack;
+	
+	private UndoTextStore store = new UndoTextStore();
+	
+	private UndoInfo[] journal = new UndoInfo[64];
+	private int head;
+	private int size;
+	private int cursor;
+	
+	private int  steps;
+	private long bytes;
 	
 	private UndoListener undoListener;
 	
 	UndoManager() {
-		undoStack = new Stack<>();
-		redoStack = new Stack<>();
 	}
 	
-	private int undoCount = 0;
-	private int undoLimit = 1024;
+	private int  undoLimit   = 1024;
+	private long memoryLimit = 32L << 20;
 	
 	void setUndoListener(UndoListener listener) {
 		this.undoListener = listener;
@@ -55,166 +72,193 @@ class UndoManager {
 	private boolean isUndoing;
 	
 	boolean canUndo() {
-		return !undoStack.isEmpty();
+		return cursor>0 || (undoSpill!=null && !undoSpill.isEmpty());
+	}
+	
+	private UndoInfo get(int index) {
+		return journal[(head+index) % journal.length];
 	}
 	
 	void undo() {
-		if (!undoStack.empty()) {
-			isUndoing = true;
-			UndoInfo info = undoStack.pop();
-			if (info.isBoth) {
-				undoListener.onUndo0(info);				
-				redoStack.push(info);
-			} else if (info.isAdd) {
-				int len = info.newText.length();
-				if (len != 1) {
-					undoListener.onUndo1(info);
-					redoStack.push(info);
-				} else {
-					boolean isAdjacent = true;
-					while (len==1 && isAdjacent) {
-						undoListener.onUndo1(info);
-						redoStack.push(info);
-						
-						if (!undoStack.empty()) {
-							info = undoStack.pop();
-							if (info.isAdd) {
-								len = info.newText.length();
-								isAdjacent = redoStack.peek().pos==info.pos+1
-												|| redoStack.peek().pos==info.pos;
-							} else {
-								break;
-							}
-						} else {
-							break;
-						}
-					}
-					
-					if (len!=1 || !info.isAdd || !isAdjacent) {
-						undoStack.push(info);
-					}
-				}
-			} else {
-				int len = info.replacedText.length();
-				if (len != 1) {
-					undoListener.onUndo2(info);
-					redoStack.push(info);
-				} else {
-					boolean isAdjacent = true;
-					while (len==1 && isAdjacent) {
-						undoListener.onUndo2(info);
-						redoStack.push(info);
-						
-						if (!undoStack.empty()) {
-							info = undoStack.pop();
-							if (!info.isAdd) {
-								len = info.replacedText.length();
-								isAdjacent = redoStack.peek().pos==info.pos-1
-										|| redoStack.peek().pos==info.pos;
-							} else {
-								break;
-							}
-						} else {
-							break;
-						}
-					}
-					
-					if (len!=1 || info.isAdd || !isAdjacent) {
-						undoStack.push(info);
-					}
-				}
-			}
-			
+		sealRun();
+		if (cursor==0 && !pageInUndo()) return;
+		isUndoing = true;
+		int end = cursor;
+		do {
+			cursor--;
+		} while (cursor>0 && !get(cursor).first);
+		revision = get(cursor).revision - 1;
+		
+		Edits edits = new Edits();
+		collectEdits(cursor, end, true, edits);
+		try {
+			applyEdits(edits);
+		} finally {
 			isUndoing = false;
-			undoed = true;
 		}
-		//System.out.println("undo:" + undoStack);
-		//System.out.println("redo:" + redoStack);
+		
+		// 读回的记录使内存超出限制时, 把最新的可重做记录写入磁盘.
+		while (steps>1 && isOverLimit() && lastStepStart()>=cursor && redoSpill!=null) {
+			spillNewestStep();
+		}
 	}
 	
 	void redo() {
-		if (!redoStack.empty()) {
-			isRedoing = true;
-			UndoInfo info = redoStack.pop();
-			if (info.isBoth) {
-				undoListener.onRedo0(info);				
-				undoStack.push(info);
-			} else if (info.isAdd) {
-				int len = info.newText.length();
-				if (len != 1) {
-					undoListener.onRedo1(info);
-					undoStack.push(info);
-				} else {
-					boolean isAdjacent = true;
-					while (len==1 && isAdjacent) {
-						undoListener.onRedo1(info);
-						undoStack.push(info);
-						
-						if (!redoStack.empty()) {
-							info = redoStack.pop();
-							if (info.isAdd) {
-								len = info.newText.length();
-								isAdjacent = undoStack.peek().pos==info.pos
-												|| undoStack.peek().pos==info.pos-1;
-							} else {
-								break;
-							}
-						} else {
-							break;
-						}
-					}
-					
-					if (len!=1 || !info.isAdd || !isAdjacent) {
-						redoStack.push(info);
-					}
-				}
+		if (cursor==size && !pageInRedo()) return;
+		isRedoing = true;
+		int start = cursor;
+		do {
+			cursor++;
+		} while (cursor<size && !get(cursor).first);
+		revision = get(start).revision;
+		
+		Edits edits = new Edits();
+		collectEdits(start, cursor, false, edits);
+		try {
+			applyEdits(edits);
+		} finally {
+			isRedoing = false;
+		}
+		
+		while (steps>1 && isOverLimit() && firstStepEnd()<=cursor && undoSpill!=null) {
+			spillOldestStep();
+		}
+	}
+	
+	private boolean isRedoing;
+	
+	/*
+	 * 未修改的文本超过这个长度时, 不合并修改.
+	 * */
+	private static final int COMPOSE_GAP_LIMIT = 1 << 16;
+	
+	/*
+	 * 一组修改: 用 text[i] 替换 [pos[i], pos[i]+del[i]), 每个修改都使用前面的修改完成后的坐标.
+	 * */
+	private static class Edits {
+		int      n;
+		int[]    pos  = new int[4];
+		int[]    del  = new int[4];
+		String[] text = new String[4];
+		
+		void add(int pos, int del, String text) {
+			if (n == this.pos.length) {
+				this.pos  = Arrays.copyOf(this.pos, n<<1);
+				this.del  = Arrays.copyOf(this.del, n<<1);
+				this.text = Arrays.copyOf(this.text, n<<1);
+			}
+			this.pos[n]  = pos;
+			this.del[n]  = del;
+			this.text[n] = text;
+			n++;
+		}
+		
+		void applyTo(StringBuilder sb) {
+			for (int i=0; i<n; i++) {
+				sb.replace(pos[i], pos[i]+del[i], text[i]);
+			}
+		}
+	}
+	
+	/*
+	 * 把 [from, to) 的记录转换为修改. undo 为真时, 按相反的顺序转换为撤销这些记录的修改.
+	 * */
+	private void collectEdits(int from, int to, boolean undo, Edits edits) {
+		if (undo) {
+			for (int i=to-1; i>=from; i--) {
+				UndoInfo info = get(i);
+				edits.add(info.pos, info.newTextLength(), info.isAdd ? "" : info.replacedText());
+			}
+		} else {
+			for (int i=from; i<to; i++) {
+				UndoInfo info = get(i);
+				edits.add(info.pos, info.replacedTextLength(), 
+								info.isAdd || info.isBoth ? info.newText() : "");
+			}
+		}
+	}
+	
+	/*
+	 * 执行一组修改.
+	 * 
+	 * 全部修改被合并为覆盖它们的一个区间的一次替换, 文档只被修改一次.
+	 * 如果区间中未被修改的文本太多, 则逐个执行修改.
+	 * 最后选择最后一个修改插入的文本.
+	 * */
+	private void applyEdits(Edits edits) {
+		int n = edits.n;
+		if (n == 0) return;
+		int[]    pos  = edits.pos;
+		int[]    del  = edits.del;
+		String[] text = edits.text;
+		int last = n-1;
+		if (n == 1) {
+			undoListener.apply(pos[0], del[0], text[0], pos[0], text[0].length());
+			return;
+		}
+		
+		// lo, hi 是当前坐标下的区间, origLo, origHi 是修改前坐标下的区间.
+		int lo = 0, hi = 0, origLo = 0, origHi = 0;
+		long touched = 0;
+		for (int i=0; i<n; i++) {
+			int start = pos[i];
+			int end   = pos[i]+del[i];
+			if (i == 0) {
+				lo = origLo = start;
+				hi = origHi = end;
 			} else {
-				int len = info.replacedText.length();
-				if (len != 1) {
-					undoListener.onRedo2(info);
-					undoStack.push(info);
-				} else {
-					boolean isAdjacent = true;
-					while (len==1 && isAdjacent) {
-						undoListener.onRedo2(info);
-						undoStack.push(info);
-						
-						if (!redoStack.empty()) {
-							info = redoStack.pop();
-							if (!info.isAdd) {
-								len = info.replacedText.length();
-								isAdjacent = undoStack.peek().pos==info.pos+1
-										|| undoStack.peek().pos==info.pos;
-							} else {
-								break;
-							}
-						} else {
-							break;
-						}
-					}
-					
-					if (len!=1 || info.isAdd || !isAdjacent) {
-						redoStack.push(info);
-					}
+				if (start < lo) {
+					origLo -= lo-start;
+					lo = start;
+				}
+				if (end > hi) {
+					origHi += end-hi;
+					hi = end;
 				}
 			}
-			
-			isRedoing = false;
+			hi += text[i].length() - del[i];
+			touched += del[i];
+		}
+		
+		if (origHi-origLo-touched > COMPOSE_GAP_LIMIT) {
+			for (int i=0; i<n; i++) {
+				int selection = i==last ? pos[i] : -1;
+				undoListener.apply(pos[i], del[i], text[i], selection, text[i].length());
+			}
+			return;
+		}
+		
+		StringBuilder sb = new StringBuilder(undoListener.getText(origLo, origHi-origLo));
+		for (int i=0; i<n; i++) {
+			sb.replace(pos[i]-origLo, pos[i]-origLo+del[i], text[i]);
 		}
-		//System.out.println("undo:" + undoStack);
-		//System.out.println("redo:" + redoStack);
+		undoListener.apply(origLo, origHi-origLo, sb.toString(), pos[last], text[last].length());
 	}
-
-	private boolean isRedoing;
 	
 	boolean canRedo() {
-		return !redoStack.isEmpty();
+		return cursor<size || (redoSpill!=null && !redoSpill.isEmpty());
 	}
 	
 	void cleanUndoInfo() {
-		undoStack.clear();
-		redoStack.clear();
-		undoCount = 0;
+		for (int i=0; i<journal.length; i++) {
+			journal[i] = null;
+		}
+		head   = 0;
+		size   = 0;
+		cursor = 0;
+		steps  = 0;
+		bytes  = 0;
+		openRun = null;
+		store.clear();
+		firstRevision = lastRevision = revision;
+		checkpoints.clear();
+		checkpointBytes = 0;
+		try {
+			if (undoSpill != null) undoSpill.clear();
+			if (redoSpill != null) redoSpill.clear();
+		} catch (IOException e) {
+			spillFailed(e);
+		}
 	}
 	
 	void setUndoLimit(int limit) {
@@ -222,39 +266,393 @@ class UndoManager {
 		this.undoLimit = limit;
 	}
 	
-	private boolean undoed;
+	void setMemoryLimit(long limit) {
+		if (limit < 0) limit = 0;
+		this.memoryLimit = limit;
+	}
+	
+	/*
+	 * 连续输入或删除的单个字符被合并为一条记录(run).
+	 * 两次修改的间隔超过 coalesceInterval 毫秒, caret 跳转, 换行,
+	 * 以及 (breakAtWhitespace 为真时) 从空白字符转向非空白字符时, 开始新的记录.
+	 * */
+	private long coalesceInterval = 1000;
+	private boolean breakAtWhitespace = true;
+	
+	private UndoInfo openRun;
+	private long lastEditTime;
+	private char lastRunChar;
+	
+	void setCoalescing(long interval, boolean breakAtWhitespace) {
+		this.coalesceInterval  = Math.max(interval, 0);
+		this.breakAtWhitespace = breakAtWhitespace;
+		sealRun();
+	}
+	
+	/*
+	 * caret 被移动(不是由文本修改引起的)时调用, 如果 caret 离开了正在合并的记录的末尾, 结束合并.
+	 * */
+	void caretMoved(int offset) {
+		if (openRun != null) {
+			int runCaret = openRun.isAdd ? openRun.pos+openRun.newTextLength() : openRun.pos;
+			if (offset != runCaret) {
+				sealRun();
+			}
+		}
+	}
+	
+	private void sealRun() {
+		if (openRun != null) {
+			openRun.seal();
+			openRun = null;
+		}
+	}
+	
+	private static boolean isLineBreak(char c) {
+		return c=='\n' || c=='\r';
+	}
+	
+	/*
+	 * 尝试把单个字符的修改合并到 openRun 中.
+	 * */
+	private boolean coalesce(int start, String replacedText, String newText, long now) {
+		if (openRun==null || compoundGroup!=0 || now-lastEditTime>coalesceInterval) {
+			return false;
+		}
+		char c;
+		boolean prepend;
+		if (openRun.isAdd && replacedText==null && newText.length()==1) {
+			c = newText.charAt(0);
+			prepend = false;
+			if (start != openRun.pos+openRun.newTextLength()) return false;
+		} else if (!openRun.isAdd && !openRun.isBoth && newText==null && replacedText.length()==1) {
+			c = replacedText.charAt(0);
+			if (start == openRun.pos-1) {
+				prepend = true;
+			} else if (start == openRun.pos) {
+				prepend = false;
+			} else {
+				return false;
+			}
+		} else {
+			return false;
+		}
+		if (isLineBreak(c)) return false;
+		if (breakAtWhitespace && !Character.isWhitespace(c) && Character.isWhitespace(lastRunChar)) {
+			return false;
+		}
+		openRun.extend(c, prepend);
+		bytes += 2;
+		lastRunChar = c;
+		return true;
+	}
+	
+	private int compoundDepth;
+	private int compoundGroup;
+	private int lastGroup;
+	
+	/**
+	 * 开始一个复合操作.
+	 *
+	 * 在 endCompound() 之前记录的所有操作属于同一个复合操作, 它们被作为一步撤销或重做.
+	 * 复合操作可以嵌套, 只有最外层的复合操作有效.
+	 * */
+	void beginCompound() {
+		if (compoundDepth++ == 0) {
+			compoundGroup = ++lastGroup;
+		}
+	}
+	
+	/**
+	 * 结束一个复合操作.
+	 * */
+	void endCompound() {
+		if (compoundDepth > 0 && --compoundDepth == 0) {
+			compoundGroup = 0;
+		}
+	}
 	
 	void addUndoInfo(int start, String replacedText,
 								String newText) {
-		if (!isUndoing && !isRedoing) {
-			undoCount++;
-			if (undoCount > undoLimit) {
-				cleanUndoInfo();
+		addUndoInfo(start, replacedText, newText, true);
+	}
+	
+	/*
+	 * 记录一步修改. applied 为假表示修改还没有进行, 文档仍是修改前的文本,
+	 * 如 IME 输入替换选择文本之前记录的删除.
+	 * */
+	void addUndoInfo(int start, String replacedText,
+								String newText, boolean applied) {
+		if (isUndoing || isRedoing || undoLimit==0) {
+			return;
+		}
+		
+		if (replacedText!=null && replacedText.isEmpty()) replacedText = null;
+		if (newText!=null && newText.isEmpty()) newText = null;
+		if (replacedText==null && newText==null) {
+			return;
+		}
+		
+		/*
+		 * 新的输入使全部可重做的记录失效.
+		 **/
+		discardRedo();
+		
+		long now = System.currentTimeMillis();
+		boolean merged = coalesce(start, replacedText, newText, now);
+		lastEditTime = now;
+		if (merged) {
+			return;
+		}
+		sealRun();
+		
+		UndoInfo info = new UndoInfo(store, start, newText, replacedText);
+		info.group = compoundGroup;
+		info.first = compoundGroup==0 || size==0 || get(size-1).group!=compoundGroup;
+		if (info.first) {
+			checkpoint(info, applied);
+			info.revision = lastRevision = ++revision;
+			info.time = now;
+		}
+		append(info);
+		
+		String text = info.isAdd ? newText : replacedText;
+		if (compoundGroup==0 && coalesceInterval>0 && !info.isBoth 
+				&& text.length()==1 && !isLineBreak(text.charAt(0))) {
+			openRun = info;
+			lastRunChar = text.charAt(0);
+		}
+		
+		while (steps>1 && isOverLimit()) {
+			if (undoSpill != null) {
+				spillOldestStep();
 			} else {
-				/*
-				 * 如果曾经执行过 undo 操作, 那么在下一次输入需要清空 redo 栈
-				 **/ 
-				
-				if (undoed) {
-					undoed = false;
-					redoStack.clear();
+				discardOldestStep();
+			}
+		}
+	}
+	
+	private boolean isOverLimit() {
+		return steps>undoLimit || bytes+checkpointBytes>memoryLimit;
+	}
+	
+	private void ensureCapacity() {
+		if (size == journal.length) {
+			UndoInfo[] tmp = new UndoInfo[journal.length<<1];
+			for (int i=0; i<size; i++) {
+				tmp[i] = get(i);
+			}
+			journal = tmp;
+			head = 0;
+		}
+	}
+	
+	private void append(UndoInfo info) {
+		addLast(info);
+		cursor = size;
+	}
+	
+	private void addLast(UndoInfo info) {
+		ensureCapacity();
+		journal[(head+size) % journal.length] = info;
+		size++;
+		bytes += info.byteSize();
+		if (info.first) steps++;
+	}
+	
+	/*
+	 * 在开头加入一条可撤销的记录.
+	 * */
+	private void addFirst(UndoInfo info) {
+		ensureCapacity();
+		head = (head-1+journal.length) % journal.length;
+		journal[head] = info;
+		size++;
+		cursor++;
+		bytes += info.byteSize();
+		if (info.first) steps++;
+	}
+	
+	private UndoInfo removeFirst() {
+		UndoInfo info = journal[head];
+		journal[head] = null;
+		head = (head+1) % journal.length;
+		size--;
+		cursor--;
+		bytes -= info.byteSize();
+		if (info.first) steps--;
+		// 释放第一条使用 UndoTextStore 的记录之前的文本.
+		for (int i=0; i<size; i++) {
+			if (!get(i).isDetached()) {
+				store.release(get(i).textStart());
+				break;
+			}
+		}
+		return info;
+	}
+	
+	private UndoInfo removeLast() {
+		int index = (head+size-1) % journal.length;
+		UndoInfo info = journal[index];
+		journal[index] = null;
+		size--;
+		if (cursor > size) cursor = size;
+		bytes -= info.byteSize();
+		if (info.first) steps--;
+		if (!info.isDetached()) {
+			store.truncate(info.textStart());
+		}
+		return info;
+	}
+	
+	private int lastStepStart() {
+		int index = size-1;
+		while (index>0 && !get(index).first) {
+			index--;
+		}
+		return index;
+	}
+	
+	private int firstStepEnd() {
+		int index = 1;
+		while (index<size && !get(index).first) {
+			index++;
+		}
+		return index;
+	}
+	
+	private void discardRedo() {
+		while (size > cursor) {
+			removeLast();
+		}
+		lastRevision = revision;
+		removeCheckpoints(checkpoints.tailMap(revision, false));
+		try {
+			if (redoSpill != null) redoSpill.clear();
+		} catch (IOException e) {
+			spillFailed(e);
+		}
+	}
+	
+	/*
+	 * 丢弃最早的一步.
+	 * */
+	private void discardOldestStep() {
+		UndoInfo info = removeFirst();
+		while (size>0 && !get(0).first) {
+			removeFirst();
+		}
+		firstRevision = info.revision;
+		discardCheckpoints();
+	}
+	
+	private UndoSpill undoSpill;
+	private UndoSpill redoSpill;
+	
+	/*
+	 * 开启或关闭磁盘缓存. 关闭时已写入磁盘的记录被丢弃.
+	 * */
+	void setSpillEnabled(boolean enable) {
+		if (enable && undoSpill==null) {
+			try {
+				undoSpill = new UndoSpill();
+				redoSpill = new UndoSpill();
+			} catch (IOException e) {
+				spillFailed(e);
+			}
+		} else if (!enable) {
+			closeSpill();
+		}
+	}
+	
+	void dispose() {
+		closeSpill();
+	}
+	
+	private void closeSpill() {
+		if (undoSpill != null) undoSpill.close();
+		if (redoSpill != null) redoSpill.close();
+		undoSpill = null;
+		redoSpill = null;
+	}
+	
+	private void spillFailed(IOException e) {
+		e.printStackTrace();
+		closeSpill();
+		// 已写入磁盘的记录丢失.
+		firstRevision = size>0 ? get(0).revision-1 : revision;
+		lastRevision  = size>0 ? Math.max(revision, get(lastStepStart()).revision) : revision;
+		discardCheckpoints();
+	}
+	
+	/*
+	 * 把最早的一步写入 undoSpill, 写入失败时丢弃它.
+	 * */
+	private void spillOldestStep() {
+		do {
+			UndoInfo info = removeFirst();
+			if (undoSpill != null) {
+				try {
+					undoSpill.push(info);
+				} catch (IOException e) {
+					spillFailed(e);
 				}
-				
-				if (replacedText!=null && !replacedText.isEmpty() 
-						&& newText!=null && !newText.isEmpty()) {
-					UndoInfo info = new UndoInfo(start, newText, replacedText);
-					undoStack.push(info);
-				} else if (replacedText!=null && !replacedText.isEmpty()){
-					//System.out.println(replacedText);
-					UndoInfo info = new UndoInfo(start, null, replacedText);
-					undoStack.push(info);
-				} else if (newText!=null && !newText.isEmpty()) {
-					UndoInfo info = new UndoInfo(start, newText, null);
-					undoStack.push(info);
+			}
+		} while (size>0 && !get(0).first);
+		discardCheckpoints();
+	}
+	
+	/*
+	 * 把最新的一步写入 redoSpill, 步的第一条记录在栈顶.
+	 * */
+	private void spillNewestStep() {
+		UndoInfo info;
+		do {
+			info = removeLast();
+			if (redoSpill != null) {
+				try {
+					redoSpill.push(info);
+				} catch (IOException e) {
+					spillFailed(e);
 				}
 			}
+		} while (!info.first && size>0);
+	}
+	
+	/*
+	 * 从 undoSpill 读回一步.
+	 * */
+	private boolean pageInUndo() {
+		if (undoSpill==null || undoSpill.isEmpty()) return false;
+		try {
+			UndoInfo info;
+			do {
+				info = undoSpill.pop();
+				addFirst(info);
+			} while (!info.first && !undoSpill.isEmpty());
+			return true;
+		} catch (IOException e) {
+			spillFailed(e);
+			return cursor > 0;
+		}
+	}
+	
+	/*
+	 * 从 redoSpill 读回一步.
+	 * */
+	private boolean pageInRedo() {
+		if (redoSpill==null || redoSpill.isEmpty()) return false;
+		try {
+			addLast(redoSpill.pop());
+			while (!redoSpill.isEmpty() && !redoSpill.isFirstOnTop()) {
+				addLast(redoSpill.pop());
+			}
+			return true;
+		} catch (IOException e) {
+			spillFailed(e);
+			return cursor < size;
 		}
-	}	
+	}
 	
 	boolean isUndoing() {
 		return isUndoing;
@@ -263,4 +661,275 @@ class UndoManager {
 	boolean isRedoing() {
 		return isRedoing;
 	}
+	
+	/*
+	 * 当前版本, 最早和最新的可到达版本.
+	 * */
+	private long revision;
+	private long firstRevision;
+	private long lastRevision;
+	
+	long getRevision() {
+		return revision;
+	}
+	
+	long getFirstRevision() {
+		return firstRevision;
+	}
+	
+	long getLastRevision() {
+		return lastRevision;
+	}
+	
+	/*
+	 * 压缩的文档快照.
+	 * */
+	private static class Checkpoint {
+		byte[] data;
+		int    length;
+		
+		long byteSize() {
+			return 32 + data.length;
+		}
+	}
+	
+	private int checkpointInterval = 100;
+	private TreeMap<Long, Checkpoint> checkpoints = new TreeMap<>();
+	private long checkpointBytes;
+	
+	/*
+	 * 设置检查点间隔的步数, 0 表示不保存检查点.
+	 * */
+	void setCheckpointInterval(int interval) {
+		this.checkpointInterval = Math.max(interval, 0);
+		if (checkpointInterval == 0) {
+			removeCheckpoints(checkpoints);
+		}
+	}
+	
+	/*
+	 * 在记录新的一步之前, 为当前版本保存检查点.
+	 * applied 为真时文档已经包含了 info 的修改, 所以先还原 info 修改前的文本;
+	 * 否则文档就是当前版本的文本, 直接保存.
+	 * */
+	private void checkpoint(UndoInfo info, boolean applied) {
+		if (checkpointInterval==0 || revision==0 || revision%checkpointInterval!=0
+				|| checkpoints.containsKey(revision) || undoListener==null) {
+			return;
+		}
+		int count = undoListener.getCharCount();
+		StringBuilder sb;
+		if (applied) {
+			int end   = info.pos + info.newTextLength();
+			String replaced = info.replacedText();
+			sb = new StringBuilder(count - info.newTextLength() + info.replacedTextLength());
+			sb.append(undoListener.getText(0, info.pos));
+			if (replaced != null) sb.append(replaced);
+			sb.append(undoListener.getText(end, count-end));
+		} else {
+			sb = new StringBuilder(undoListener.getText(0, count));
+		}
+		
+		Checkpoint checkpoint = new Checkpoint();
+		checkpoint.data   = deflate(sb.toString());
+		checkpoint.length = sb.length();
+		checkpoints.put(revision, checkpoint);
+		checkpointBytes += checkpoint.byteSize();
+	}
+	
+	private static byte[] deflate(String text) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buf, 0, deflater.deflate(buf));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private static String inflate(Checkpoint checkpoint) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(checkpoint.data);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(checkpoint.length);
+			byte[] buf = new byte[8192];
+			while (!inflater.finished()) {
+				int n = inflater.inflate(buf);
+				if (n==0 && inflater.needsInput()) break;
+				out.write(buf, 0, n);
+			}
+			return out.toString(StandardCharsets.UTF_8);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private void removeCheckpoints(SortedMap<Long, Checkpoint> map) {
+		for (Checkpoint checkpoint : map.values()) {
+			checkpointBytes -= checkpoint.byteSize();
+		}
+		map.clear();
+	}
+	
+	/*
+	 * 丢弃内存中的记录不能到达的检查点.
+	 * */
+	private void discardCheckpoints() {
+		removeCheckpoints(checkpoints.headMap(baseRevision()));
+	}
+	
+	/*
+	 * 内存中最早的版本, 即撤销内存中全部记录后的版本.
+	 * */
+	private long baseRevision() {
+		return size>0 && get(0).first ? get(0).revision-1 : revision;
+	}
+	
+	/*
+	 * 获取版本在内存中对应的位置, 版本不在内存中时返回 -1.
+	 * */
+	private int indexOfRevision(long target) {
+		long base = baseRevision();
+		if (target<base || target>base+steps) {
+			return -1;
+		}
+		int index = 0;
+		for (long r=base; r<target; r++) {
+			do {
+				index++;
+			} while (index<size && !get(index).first);
+		}
+		return index;
+	}
+	
+	/*
+	 * 获取版本的记录时间, 即产生这个版本的一步开始的时间. 不知道时返回 -1.
+	 * */
+	long getRevisionTime(long target) {
+		int index = indexOfRevision(target);
+		if (index <= 0) return -1;
+		int start = index-1;
+		while (start>0 && !get(start).first) {
+			start--;
+		}
+		return get(start).time;
+	}
+	
+	/*
+	 * 查找在 time 时刻的版本, 即记录时间不晚于 time 的最新版本.
+	 * 只查找内存中的记录, time 早于它们时返回内存中最早的版本.
+	 * */
+	long findRevisionAt(long time) {
+		long result = baseRevision();
+		for (int i=0; i<size; i++) {
+			UndoInfo info = get(i);
+			if (info.first) {
+				if (info.time > time) break;
+				result = info.revision;
+			}
+		}
+		return result;
+	}
+	
+	/*
+	 * 跳转到指定的版本.
+	 * 
+	 * 如果路径上的记录都在内存中, 从当前状态或者最近的检查点出发, 文档只被修改一次;
+	 * 否则逐步撤销或重做.
+	 * */
+	boolean gotoRevision(long target) {
+		sealRun();
+		if (target<firstRevision || target>lastRevision) {
+			return false;
+		}
+		if (target == revision) {
+			return true;
+		}
+		int to = indexOfRevision(target);
+		if (to < 0) {
+			while (revision>target && canUndo()) {
+				undo();
+			}
+			while (revision<target && canRedo()) {
+				redo();
+			}
+			return revision == target;
+		}
+		
+		Map.Entry<Long, Checkpoint> nearest = nearer(target, 
+				checkpoints.floorEntry(target), checkpoints.ceilingEntry(target));
+		
+		boolean backward = target < revision;
+		isUndoing =  backward;
+		isRedoing = !backward;
+		try {
+			if (nearest!=null && Math.abs(nearest.getKey()-target)<Math.abs(revision-target)) {
+				applyFromCheckpoint(nearest.getValue(), indexOfRevision(nearest.getKey()), to);
+			} else {
+				Edits edits = new Edits();
+				if (backward) {
+					collectEdits(to, cursor, true, edits);
+				} else {
+					collectEdits(cursor, to, false, edits);
+				}
+				applyEdits(edits);
+			}
+		} finally {
+			isUndoing = false;
+			isRedoing = false;
+		}
+		cursor   = to;
+		revision = target;
+		return true;
+	}
+	
+	/*
+	 * 返回内存中的记录可以到达的, 离 target 较近的检查点.
+	 * */
+	private Map.Entry<Long, Checkpoint> nearer(long target, 
+			Map.Entry<Long, Checkpoint> a, Map.Entry<Long, Checkpoint> b) {
+		long base = baseRevision();
+		if (a!=null && a.getKey()<base) a = null;
+		if (b!=null && b.getKey()>base+steps) b = null;
+		if (a == null) return b;
+		if (b == null) return a;
+		return target-a.getKey() <= b.getKey()-target ? a : b;
+	}
+	
+	/*
+	 * 从检查点 (位置为 from) 出发得到位置 to 的文本, 然后用与当前文档不同的部分替换文档.
+	 * */
+	private void applyFromCheckpoint(Checkpoint checkpoint, int from, int to) {
+		StringBuilder sb = new StringBuilder(inflate(checkpoint));
+		Edits edits = new Edits();
+		if (to < from) {
+			collectEdits(to, from, true, edits);
+		} else {
+			collectEdits(from, to, false, edits);
+		}
+		edits.applyTo(sb);
+		
+		int count = undoListener.getCharCount();
+		String current = undoListener.getText(0, count);
+		int limit  = Math.min(count, sb.length());
+		int prefix = 0;
+		while (prefix<limit && current.charAt(prefix)==sb.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix<limit-prefix 
+				&& current.charAt(count-1-suffix)==sb.charAt(sb.length()-1-suffix)) {
+			suffix++;
+		}
+		String text = sb.substring(prefix, sb.length()-suffix);
+		undoListener.apply(prefix, count-prefix-suffix, text, prefix, text.length());
+	}
 }
@@ -0,0 +1,172 @@
+package org.sigmai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * 撤销记录的磁盘栈.
+ *
+ * 每条记录的格式为:
+ * pos(int) flags(byte) group(int) revision(long) time(long) newTextLen(int) newText(char...) replacedTextLen(int) replacedText(char...) length(int)
+ * 文本长度为 -1 表示 null. 末尾的 length 是记录前面部分的字节数, 用于从文件末尾向前读取.
+ * 写入经过缓冲, 读取前缓冲区被写入文件.
+ * */
+class UndoSpill {
+	
+	private static final int BUFFER_SIZE = 64 << 10;
+	
+	private static final int FLAG_FIRST = 1;
+	
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	
+	/*
+	 * 文件中的字节数, 不包括缓冲区.
+	 * */
+	private long written;
+	private int count;
+	
+	UndoSpill() throws IOException {
+		Path path = Files.createTempFile("sigmai-undo", ".tmp");
+		channel = FileChannel.open(path, StandardOpenOption.READ,
+							StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+	
+	boolean isEmpty() {
+		return count == 0;
+	}
+	
+	void push(UndoInfo info) throws IOException {
+		long start = size();
+		putInt(info.pos);
+		ensureRoom(1);
+		buffer.put((byte)(info.first ? FLAG_FIRST : 0));
+		putInt(info.group);
+		putLong(info.revision);
+		putLong(info.time);
+		putText(info.newText());
+		putText(info.replacedText());
+		putInt((int)(size() - start));
+		count++;
+	}
+	
+	UndoInfo pop() throws IOException {
+		flush();
+		int length = readInt(written-4);
+		long start = written-4-length;
+		ByteBuffer record = ByteBuffer.allocate(length);
+		read(record, start);
+		record.flip();
+		
+		int pos = record.getInt();
+		boolean first = (record.get()&FLAG_FIRST) != 0;
+		int group = record.getInt();
+		long revision = record.getLong();
+		long time = record.getLong();
+		String newText = getText(record);
+		String replacedText = getText(record);
+		
+		channel.truncate(start);
+		written = start;
+		count--;
+		UndoInfo info = new UndoInfo(pos, newText, replacedText, group, first);
+		info.revision = revision;
+		info.time = time;
+		return info;
+	}
+	
+	/*
+	 * 判断栈顶记录是否是一步操作的第一条记录.
+	 * */
+	boolean isFirstOnTop() throws IOException {
+		flush();
+		int length = readInt(written-4);
+		ByteBuffer flags = ByteBuffer.allocate(1);
+		read(flags, written-4-length+4);
+		return (flags.get(0)&FLAG_FIRST) != 0;
+	}
+	
+	void clear() throws IOException {
+		buffer.clear();
+		channel.truncate(0);
+		written = 0;
+		count = 0;
+	}
+	
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private long size() {
+		return written + buffer.position();
+	}
+	
+	private void ensureRoom(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, written);
+		}
+		buffer.clear();
+	}
+	
+	private void putInt(int value) throws IOException {
+		ensureRoom(4);
+		buffer.putInt(value);
+	}
+	
+	private void putLong(long value) throws IOException {
+		ensureRoom(8);
+		buffer.putLong(value);
+	}
+	
+	private void putText(String text) throws IOException {
+		if (text == null) {
+			putInt(-1);
+			return;
+		}
+		putInt(text.length());
+		for (int i=0; i<text.length(); i++) {
+			ensureRoom(2);
+			buffer.putChar(text.charAt(i));
+		}
+	}
+	
+	private String getText(ByteBuffer record) {
+		int len = record.getInt();
+		if (len < 0) return null;
+		char[] chars = new char[len];
+		record.asCharBuffer().get(chars);
+		record.position(record.position() + len*2);
+		return new String(chars);
+	}
+	
+	private int readInt(long position) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4);
+		read(b, position);
+		return b.getInt(0);
+	}
+	
+	private void read(ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int n = channel.read(dst, position);
+			if (n < 0) {
+				throw new IOException("unexpected end of undo spill file");
+			}
+			position += n;
+		}
+	}
+}
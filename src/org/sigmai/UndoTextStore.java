@@ -0,0 +1,84 @@
+package org.sigmai;
+
+import java.util.ArrayList;
+
+/*
+ * 撤销记录的文本仓库.
+ *
+ * 文本被顺序追加到固定大小的 char 块中, 每段文本用一个递增的绝对位置表示.
+ * 撤销记录按追加的顺序被丢弃, 所以只需要在两端释放块.
+ * */
+class UndoTextStore {
+	
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	
+	private ArrayList<char[]> chunks = new ArrayList<>();
+	private long firstChunk;
+	private long end;
+	
+	long end() {
+		return end;
+	}
+	
+	long append(String text) {
+		long pos = end;
+		int len = text.length();
+		int copied = 0;
+		while (copied < len) {
+			int index  = (int)((end>>>CHUNK_BITS) - firstChunk);
+			while (index >= chunks.size()) {
+				chunks.add(new char[CHUNK_SIZE]);
+			}
+			int offset = (int)(end & CHUNK_MASK);
+			int count  = Math.min(len-copied, CHUNK_SIZE-offset);
+			text.getChars(copied, copied+count, chunks.get(index), offset);
+			copied += count;
+			end    += count;
+		}
+		return pos;
+	}
+	
+	String get(long pos, int len) {
+		char[] result = new char[len];
+		int copied = 0;
+		while (copied < len) {
+			int index  = (int)((pos>>>CHUNK_BITS) - firstChunk);
+			int offset = (int)(pos & CHUNK_MASK);
+			int count  = Math.min(len-copied, CHUNK_SIZE-offset);
+			System.arraycopy(chunks.get(index), offset, result, copied, count);
+			copied += count;
+			pos    += count;
+		}
+		return new String(result);
+	}
+	
+	/*
+	 * 丢弃 pos 之后的全部文本.
+	 * */
+	void truncate(long pos) {
+		end = pos;
+		int keep = (int)(((end+CHUNK_MASK)>>>CHUNK_BITS) - firstChunk);
+		while (chunks.size() > Math.max(keep, 0)) {
+			chunks.remove(chunks.size()-1);
+		}
+	}
+	
+	/*
+	 * 释放 pos 之前的全部文本.
+	 * */
+	void release(long pos) {
+		int count = (int)((pos>>>CHUNK_BITS) - firstChunk);
+		if (count > 0) {
+			chunks.subList(0, Math.min(count, chunks.size())).clear();
+			firstChunk += count;
+		}
+	}
+	
+	void clear() {
+		chunks.clear();
+		firstChunk = 0;
+		end = 0;
+	}
+}
@@ -0,0 +1,42 @@
+package org.sigmai;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 词汇表文件生成工具.
+ * <br>
+ * 把一个每行一个单词的 UTF-8 文本文件转换为 SigmaI.setVocabularyFile() 使用的词汇表文件.
+ * 单词被排序并去重, 空行被忽略.
+ * <pre>
+ * java org.sigmai.VocabularyBuilder words.txt words.voc
+ * </pre>
+ *
+ * @see SigmaI#setVocabularyFile
+ * */
+public class VocabularyBuilder {
+	
+	/**
+	 * 生成词汇表文件.
+	 *
+	 * @param wordList 每行一个单词的 UTF-8 文本文件.
+	 * @param vocabularyFile 生成的词汇表文件.
+	 * @exception IOException 如果读写文件失败.
+	 * */
+	public static void build(Path wordList, Path vocabularyFile) throws IOException {
+		String[] words = Files.readAllLines(wordList, StandardCharsets.UTF_8).stream()
+				.map(String::strip)
+				.toArray(String[]::new);
+		MappedVocabulary.write(words, vocabularyFile, MappedVocabulary.DEFAULT_BLOCK_SIZE);
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: java org.sigmai.VocabularyBuilder <word list> <vocabulary file>");
+			System.exit(1);
+		}
+		build(Path.of(args[0]), Path.of(args[1]));
+	}
+}
@@ -1,6 +1,10 @@
 package org.sigmai;
 
-import java.util.TreeSet;
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyledText;
@@ -10,8 +14,6 @@ import org.eclipse.swt.custom.TextChangingEvent;
 import org.eclipse.swt.custom.VerifyKeyListener;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
-import org.eclipse.swt.events.ModifyEvent;
-import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseListener;
 import org.eclipse.swt.events.VerifyEvent;
@@ -19,7 +21,7 @@ import org.eclipse.swt.events.VerifyListener;
 
 class WordCompleter implements KeyListener, 
 								MouseListener, TextChangeListener, 
-									VerifyKeyListener, ModifyListener, VerifyListener{
+									VerifyKeyListener, VerifyListener{
 
 
 	private boolean enableWordCompleter;
@@ -27,7 +29,6 @@ class WordCompleter implements KeyListener,
 	private SigmaI sigmai;
 	private StyledText editor;
 	
-	private TreeSet<String> selectedWordList = new TreeSet<String>();
 	private int changeOffset;
 	
 	void setSigmaI(SigmaI sigmai) {
@@ -36,100 +37,225 @@ class WordCompleter implements KeyListener,
 	}
 	
 	void enableWordCompleter(boolean enable) {
+		if (enable && !enableWordCompleter) {
+			documentWords.rebuild(editor.getContent());
+		} else if (!enable) {
+			documentWords.clear();
+		}
 		enableWordCompleter = enable;
 	}
 	
+	private boolean suspended;
+	
+	/*
+	 * 批量编辑期间挂起, 不显示提示面板, 但单词索引仍随修改更新.
+	 * */
+	void setSuspended(boolean suspended) {
+		this.suspended = suspended;
+	}
+	
+	/*
+	 * 监听的是文档的修改, 折叠和展开不修改文档, 被隐藏的单词仍然保留在索引中.
+	 * changeOffset 是编辑区域中的位置.
+	 * */
 	@Override
 	public void textChanging(TextChangingEvent event) {
-		if (enableWordCompleter) {
-			changeOffset = event.start;
+		if (!enableWordCompleter) return;
+		documentWords.textChanging(editor.getContent(), 
+				event.start, event.replaceCharCount, event.newCharCount);
+		if (!suspended) {
+			changeOffset = sigmai.toViewOffset(event.start);
 		}
 	}
 
-	private TreeSet<String> allWords = new TreeSet<String>();
-	private TreeSet<String> baseWords  = new TreeSet<String>();
-	private String[] vocabulary = new String[0];
+	private DocumentWordIndex documentWords = new DocumentWordIndex();
+	
+	/*
+	 * 基本单词列表和词汇表在 SymbolDictionary 中按内容驻留, 打开相同文件类型的编辑器共享同一份.
+	 * */
+	private PrefixIndex baseWords  = PrefixIndex.EMPTY;
+	private PrefixIndex vocabulary = PrefixIndex.EMPTY;
 	private String inputWord;
 	
+	/*
+	 * 提示面板中最多显示的单词数.
+	 * */
+	private static final int MAX_CANDIDATES = 200;
+	
+	private CompletionRanker ranker = new CompletionRanker(MAX_CANDIDATES);
+	
+	/*
+	 * 候选单词在一个所有 SigmaI 共享的后台线程中计算.
+	 * 输入停顿 DEBOUNCE_MILLIS 毫秒后才开始计算, 新的输入使正在进行的计算失效.
+	 * */
+	private static final int DEBOUNCE_MILLIS = 60;
+	
+	private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r->{
+		Thread thread = new Thread(r, "SigmaI word completer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/*
+	 * 每次输入加一, 结果只有在 generation 未改变时才被显示.
+	 * */
+	private volatile int generation;
+	private String pendingWord;
+	private Future<?> pendingTask;
+	private Runnable debounceTask = this::startCompletion;
+	
 	void addBaseWords(String[] baseWords) {
-		for (String w : baseWords) {
-			if (w!=null && !w.isEmpty()) {
-				this.baseWords.add(w);
-			}
-		}
+		String[] old = this.baseWords.words();
+		String[] all = Arrays.copyOf(old, old.length+baseWords.length);
+		System.arraycopy(baseWords, 0, all, old.length, baseWords.length);
+		PrefixIndex index = SymbolDictionary.INSTANCE.intern(new PrefixIndex(all));
+		SymbolDictionary.INSTANCE.release(this.baseWords);
+		this.baseWords = index;
 	}
 	
 	void setVocabulary(String[] vocabulary) {
-		this.vocabulary = vocabulary;
+		PrefixIndex index = SymbolDictionary.INSTANCE.intern(new PrefixIndex(vocabulary));
+		SymbolDictionary.INSTANCE.release(this.vocabulary);
+		this.vocabulary = index;
+		this.mappedVocabulary = null;
 	}
 	
-	boolean showVocabulary;
+	/*
+	 * 使用词汇表文件代替内存中的词汇表, 为 null 时不使用词汇表文件.
+	 * */
+	private MappedVocabulary mappedVocabulary;
 	
-	private void setAllWordList(TreeSet<String> wordList) {
-		allWords = wordList;
-	}
-	
-	private void setAllWordList() {
-		allWords.clear();
-		String text = editor.getText();
-		int index = 0;
-		int len   = text.length();
-		while (index < len) {
-			char c = text.charAt(index);
-			if (index<len && (Character.isLetter(c)||c=='_')) {
-				int i = index;
-				c = text.charAt(index);
-				index++;
-				while (index<len && 
-						(Character.isLetterOrDigit(text.charAt(index))||text.charAt(index)=='_')) {
-					index++;
-				}
-				allWords.add(text.substring(i, index));
-			} else {
-				index++;
-			}
-		}
+	void setVocabulary(MappedVocabulary vocabulary) {
+		SymbolDictionary.INSTANCE.release(this.vocabulary);
+		this.vocabulary = PrefixIndex.EMPTY;
+		this.mappedVocabulary = vocabulary;
+	}
+	
+	private boolean sharing;
+	
+	/*
+	 * 开启或关闭与其它编辑器共享文档单词.
+	 * */
+	void setSharing(boolean sharing) {
+		this.sharing = sharing;
+		documentWords.setShared(sharing ? SymbolDictionary.INSTANCE : null);
 	}
 	
+	boolean showVocabulary;
+	
 	private boolean isWordPartInput;
 	
 	@Override
 	public void textChanged(TextChangedEvent event) {
 		if (!enableWordCompleter) return;
+		documentWords.textChanged(editor.getContent());
+		if (suspended) return;
 		if (enterTyped) return;
 		inputWord = sigmai.getWordAtOffset(changeOffset);
 		//System.out.println(inputWord);
 		if (inputWord.length() >= 1) {
-			for (String w : allWords) {
-				if (w.startsWith(inputWord)) {
-					selectedWordList.add(w);
-				}
-			}
-			for (String w : baseWords) {
-				if (w!=null && w.startsWith(inputWord)) {
-					selectedWordList.add(w);
-				}
+			if (!isWordPartInput) return;
+			generation++;
+			pendingWord = inputWord;
+			editor.getDisplay().timerExec(DEBOUNCE_MILLIS, debounceTask);
+		} else {
+			cancelCompletion();
+			sigmai.hideCompleteWordPane();
+		}
+	}
+	
+	/*
+	 * 输入停顿后在 UI 线程中调用: 获取单词索引的快照, 然后在后台线程中计算候选单词.
+	 * */
+	private void startCompletion() {
+		if (editor.isDisposed() || pendingWord==null) return;
+		String word = pendingWord;
+		int gen = generation;
+		
+		int count  = editor.getCharCount();
+		int offset = Math.min(changeOffset, count);
+		int start  = Math.max(offset-CompletionRanker.PROXIMITY_RADIUS, 0);
+		int end    = Math.min(offset+CompletionRanker.PROXIMITY_RADIUS, count);
+		String around = editor.getTextRange(start, end-start);
+		int caret = offset - start;
+		
+		PrefixIndex documentIndex = documentWords.snapshot();
+		PrefixIndex lexerIndex = sigmai.getWordIndex();
+		PrefixIndex baseIndex = baseWords;
+		NavigableSet<String> sharedWords = sharing ? SymbolDictionary.INSTANCE.words() : null;
+		PrefixIndex vocabularyIndex = showVocabulary ? vocabulary : PrefixIndex.EMPTY;
+		MappedVocabulary vocabularyFile = showVocabulary ? mappedVocabulary : null;
+		
+		if (pendingTask != null) pendingTask.cancel(true);
+		pendingTask = WORKER.submit(()->{
+			ranker.begin(word, documentIndex, around, caret);
+			ranker.offer(documentIndex);
+			ranker.offer(lexerIndex);
+			ranker.offer(baseIndex);
+			if (sharedWords != null) {
+				ranker.offer(sharedWords);
 			}
-			if (showVocabulary) {
-				for (String w : vocabulary) {
-					if (w!=null && w.startsWith(inputWord)) {
-						selectedWordList.add(w);
-					}
-				}
+			ranker.offer(vocabularyIndex);
+			if (vocabularyFile != null) {
+				ranker.offer(vocabularyFile);
 			}
-			//editor.setFocus();
-			if (!selectedWordList.isEmpty() && isWordPartInput) {
-				sigmai.showCompleteWordList(selectedWordList);
-				selectedWordList.clear();
+			String[] candidates = ranker.finish();
+			if (gen!=generation || Thread.currentThread().isInterrupted()) return;
+			var display = editor.getDisplay();
+			if (!display.isDisposed()) {
+				display.asyncExec(()->showCandidates(word, gen, candidates));
 			}
+		});
+	}
+	
+	/*
+	 * 在 UI 线程中显示计算结果, 如果其间有新的输入或者 caret 处的单词已经改变, 结果被丢弃.
+	 * */
+	private void showCandidates(String word, int gen, String[] candidates) {
+		if (editor.isDisposed() || gen!=generation || suspended) return;
+		if (!word.equals(sigmai.getWordAtOffset(editor.getCaretOffset()))) return;
+		pendingWord = null;
+		//editor.setFocus();
+		if (candidates.length > 0) {
+			sigmai.showCompleteWordList(candidates);
 		} else {
-			selectedWordList.clear();
 			sigmai.hideCompleteWordPane();
 		}
 	}
+	
+	private void cancelCompletion() {
+		generation++;
+		pendingWord = null;
+		if (pendingTask != null) {
+			pendingTask.cancel(true);
+			pendingTask = null;
+		}
+	}
+	
+	/*
+	 * 用户采用了候选单词.
+	 * */
+	void accepted(String word) {
+		CompletionHistory.INSTANCE.record(word);
+	}
+	
+	void dispose() {
+		cancelCompletion();
+		documentWords.setShared(null);
+		SymbolDictionary.INSTANCE.release(baseWords);
+		SymbolDictionary.INSTANCE.release(vocabulary);
+		baseWords  = PrefixIndex.EMPTY;
+		vocabulary = PrefixIndex.EMPTY;
+		if (!editor.isDisposed()) {
+			editor.getDisplay().timerExec(-1, debounceTask);
+		}
+	}
 
 	@Override
 	public void textSet(TextChangedEvent event) {
+		if (enableWordCompleter) {
+			documentWords.rebuild(editor.getContent());
+		}
 	}
 
 	@Override
@@ -186,6 +312,7 @@ class WordCompleter implements KeyListener,
 						editor.setSelectionRange(wordStart, inputWord.length());
 						//System.out.println(wordStart+"@"+inputWord+"#"+word+"%");
 						sigmai.insert(word);
+						accepted(word);
 						sigmai.hideCompleteWordPane();
 						e.doit = false;
 						sigmai.setAutoIndent(false);
@@ -204,16 +331,6 @@ class WordCompleter implements KeyListener,
 		}
 	}
 
-	@Override
-	public void modifyText(ModifyEvent e) {
-		if (!enableWordCompleter) return;
-		if (sigmai.getLexer() == null) {
-			this.setAllWordList();
-		} else {
-			this.setAllWordList(sigmai.getWordList());
-		}
-	}
-
 	@Override
 	public void verifyText(VerifyEvent e) {
 		if (!isCtrlPressing && enableWordCompleter 
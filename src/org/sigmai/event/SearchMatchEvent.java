@@ -0,0 +1,14 @@
+package org.sigmai.event;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+public class SearchMatchEvent {
+	public Path    path;
+	public Charset charset;
+	public int offset;
+	public int length;
+	public int line;
+	public int column;
+	public String preview;
+}
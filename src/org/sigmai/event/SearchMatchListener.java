@@ -0,0 +1,5 @@
+package org.sigmai.event;
+
+public interface SearchMatchListener {
+	void matched(SearchMatchEvent e);
+}
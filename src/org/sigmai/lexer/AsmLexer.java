@@ -218,7 +218,7 @@ public class AsmLexer extends BaseLexer {
 		token.type = TK_ASM_MACRO;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_OTHER);
 	}
 
 	protected boolean isMacroEnd(char c) {
@@ -229,7 +229,7 @@ public class AsmLexer extends BaseLexer {
 		advance();
 		addSingleComment0(offset);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 	
 	private boolean isCommentStart(char c) {
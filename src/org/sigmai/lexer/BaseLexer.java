@@ -30,10 +30,18 @@ public abstract class BaseLexer extends Lexer {
 		} else if (!isEnd() && isOperator(current())) {
 			addOperator(offset());
 		} else {
+			if (!isEnd()) {
+				addBracket(offset(), current());
+			}
 			advance();
 		}
 	}
 	
+	@Override
+	public boolean isSupportBracketPair() {
+		return true;
+	}
+	
 	protected boolean isWordPart(char c) {
 		return isUSLetterOrDigit(c) || c=='_';
 	}
@@ -141,6 +149,7 @@ public abstract class BaseLexer extends Lexer {
 		token.length = 1;
 		token.type   = tkOperator;
 		token.lexeme = charAt(offset) + "";
+		token.depth  = addBracket(offset, charAt(offset));
 		addToken(token);
 	}
 
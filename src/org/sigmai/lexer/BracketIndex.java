@@ -0,0 +1,219 @@
+package org.sigmai.lexer;
+
+import java.util.Arrays;
+
+/**
+ * 括号配对表.
+ *
+ * 词法解析器在解析时记录代码中(字符串, 注释以及宏之外)的每个括号, 每种括号使用一个栈配对,
+ * 所以不同种类的括号互不影响, 与逐字符计数的匹配结果相同.
+ * 表中的括号按位置排序, 查找一个括号的配对括号只需一次二分查找.
+ * <br>
+ * 表还记录每个括号所在的最内层未闭合的左括号, 用于查找包围一个位置的括号对.
+ * <br>
+ * 表对应最近一次解析的结果, 由 Lexer 在第一次请求时建立, 下一次解析时失效.
+ * */
+public class BracketIndex {
+	
+	public static final int KIND_BRACE       = 0;
+	public static final int KIND_BRACKET     = 1;
+	public static final int KIND_PARENTHESIS = 2;
+	public static final int KIND_ANGLE       = 3;
+	
+	/**
+	 * 左括号, 按种类排列.
+	 * */
+	public static final String OPENS  = "{[(<";
+	
+	/**
+	 * 右括号, 按种类排列.
+	 * */
+	public static final String CLOSES = "}])>";
+	
+	private int[]  offsets;
+	private int[]  partners;
+	private int[]  parents;
+	private byte[] kinds;
+	private boolean[] opens;
+	private int size;
+	
+	private BracketIndex() {
+	}
+	
+	/**
+	 * 获取括号的种类.
+	 *
+	 * @param c 字符.
+	 * @return 括号种类, 见 KIND_*. 如果 c 不是括号, 返回 -1.
+	 * */
+	public static int kindOf(char c) {
+		int kind = OPENS.indexOf(c);
+		return kind>=0 ? kind : CLOSES.indexOf(c);
+	}
+	
+	/**
+	 * 获取指定位置的括号.
+	 *
+	 * @param offset 位置.
+	 * @return 括号的下标, 如果 offset 处没有被记录的括号, 返回 -1.
+	 * */
+	public int indexOf(int offset) {
+		int i = Arrays.binarySearch(offsets, 0, size, offset);
+		return i>=0 ? i : -1;
+	}
+	
+	/**
+	 * 获取括号的位置.
+	 *
+	 * @param index 括号的下标.
+	 * @return 位置.
+	 * */
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+	
+	/**
+	 * 获取配对括号的位置.
+	 *
+	 * @param index 括号的下标.
+	 * @return 配对括号的位置, 如果括号没有配对, 返回 -1.
+	 * */
+	public int getPartner(int index) {
+		return partners[index];
+	}
+	
+	/**
+	 * 获取括号的种类.
+	 *
+	 * @param index 括号的下标.
+	 * @return 括号种类, 见 KIND_*.
+	 * */
+	public int getKind(int index) {
+		return kinds[index];
+	}
+	
+	/**
+	 * 判断括号是否是左括号.
+	 *
+	 * @param index 括号的下标.
+	 * @return 结果.
+	 * */
+	public boolean isOpen(int index) {
+		return opens[index];
+	}
+	
+	/**
+	 * 查找包围 [start, end) 的最内层括号对.
+	 *
+	 * 括号对 [open, close] 包围 [start, end), 当且仅当 open<start 并且 close>=end.
+	 * 所以 [start, end) 恰好是一个括号对(包括括号)时, 结果是包围它的上一层括号对.
+	 *
+	 * @param start 开始位置, 包括.
+	 * @param end 结束位置, 不包括.
+	 * @return 左括号的下标, 如果不存在, 返回 -1.
+	 * */
+	public int findEnclosing(int start, int end) {
+		int i = Arrays.binarySearch(offsets, 0, size, start);
+		// 最后一个位置小于 start 的括号.
+		i = i>=0 ? i-1 : -i-2;
+		if (i < 0) {
+			return -1;
+		}
+		int open = opens[i] ? i : parents[i];
+		while (open>=0 && (partners[open]<0 || partners[open]<end)) {
+			open = parents[open];
+		}
+		return open;
+	}
+	
+	/**
+	 * 获取括号个数.
+	 *
+	 * @return 括号个数.
+	 * */
+	public int size() {
+		return size;
+	}
+	
+	/*
+	 * 在解析过程中按位置顺序记录括号, 并使用每种括号一个栈进行配对.
+	 * */
+	static class Builder {
+		private BracketIndex index = new BracketIndex();
+		private int[][] stacks = new int[OPENS.length()][16];
+		private int[]   depths = new int[OPENS.length()];
+		
+		Builder() {
+			clear();
+		}
+		
+		void clear() {
+			index.offsets  = new int[64];
+			index.partners = new int[64];
+			index.parents  = new int[64];
+			index.kinds    = new byte[64];
+			index.opens    = new boolean[64];
+			index.size     = 0;
+			Arrays.fill(depths, 0);
+		}
+		
+		/*
+		 * 记录 offset 处的字符 c, c 不是括号时被忽略.
+		 * */
+		void add(int offset, char c) {
+			int kind = kindOf(c);
+			if (kind<0 || (index.size>0 && offset<=index.offsets[index.size-1])) {
+				return;
+			}
+			boolean open = OPENS.indexOf(c) >= 0;
+			int i = index.size;
+			if (i == index.offsets.length) {
+				int capacity = i<<1;
+				index.offsets  = Arrays.copyOf(index.offsets, capacity);
+				index.partners = Arrays.copyOf(index.partners, capacity);
+				index.parents  = Arrays.copyOf(index.parents, capacity);
+				index.kinds    = Arrays.copyOf(index.kinds, capacity);
+				index.opens    = Arrays.copyOf(index.opens, capacity);
+			}
+			index.offsets[i]  = offset;
+			index.partners[i] = -1;
+			index.kinds[i]    = (byte)kind;
+			index.opens[i]    = open;
+			index.size++;
+			if (open) {
+				index.parents[i] = innermost();
+				if (depths[kind] == stacks[kind].length) {
+					stacks[kind] = Arrays.copyOf(stacks[kind], depths[kind]<<1);
+				}
+				stacks[kind][depths[kind]++] = i;
+			} else {
+				if (depths[kind] > 0) {
+					int left = stacks[kind][--depths[kind]];
+					index.partners[left] = offset;
+					index.partners[i]    = index.offsets[left];
+				}
+				index.parents[i] = innermost();
+			}
+		}
+		
+		/*
+		 * 最近记录的仍未闭合的左括号.
+		 * */
+		private int innermost() {
+			int result = -1;
+			for (int kind=0; kind<depths.length; kind++) {
+				if (depths[kind] > 0) {
+					result = Math.max(result, stacks[kind][depths[kind]-1]);
+				}
+			}
+			return result;
+		}
+		
+		BracketIndex build() {
+			BracketIndex result = index;
+			index = new BracketIndex();
+			clear();
+			return result;
+		}
+	}
+}
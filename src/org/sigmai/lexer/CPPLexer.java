@@ -41,7 +41,6 @@ public class CPPLexer extends BaseLexer {
 	
 	{
 		tkComment = TK_CPP_COMMENT;
-		//foldTokenStack = new Stack<>();
 	}
 	
 	@Override
@@ -95,7 +94,8 @@ public class CPPLexer extends BaseLexer {
 		commentTk.end = offset();
 		addMultiCommentToken(commentTk);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
+		addFoldToken(new FoldToken(offset, offset()-1));
 	}
 
 	protected boolean isCommentDocStart(char c, char d, char e, char f) {
@@ -128,7 +128,8 @@ public class CPPLexer extends BaseLexer {
 		commentTk.end = offset();
 		addMultiCommentToken(commentTk);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
+		addFoldToken(new FoldToken(offset, offset()-1));
 	}
 
 	protected boolean isMultiCommentStart(char c, char d) {
@@ -143,32 +144,26 @@ public class CPPLexer extends BaseLexer {
 		advance(); advance();
 		addSingleComment0(offset);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	protected boolean isSingleCommentStart(char c, char d) {
 		return c=='/' && d=='/';
 	}
 	
-	//private Stack<FoldToken> foldTokenStack;
-
 	private void addBrace(int offset, boolean isLeft) {
 		advance();
 		Token token = new Token();
 		token.start  = offset;
 		token.length = 1;
 		token.type   = tkBrace;
+		token.depth  = addBracket(offset, charAt(offset));
 		addToken(token);
-		/*
 		if (isLeft) {
-			FoldToken ft = new FoldToken(offset, 0);
-			foldTokenStack.push(ft);
+			openFold(offset);
 		} else {
-			FoldToken ft = foldTokenStack.pop();
-			ft.end = offset;
-			addFoldToken(ft);
-		}*/
-		
+			closeFold(offset);
+		}
 	}
 
 	private void addRawString(int offset) {
@@ -275,7 +270,7 @@ public class CPPLexer extends BaseLexer {
 		token.type = tkMacro;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_OTHER);
 	}
 
 	protected boolean isMacroEnd(char c, char d) {
@@ -88,7 +88,7 @@ public class CSSLexer extends Lexer {
 		token.type = TK_CSS_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isHTMLCommentStart(char c, char d, char e, char f) {
@@ -106,7 +106,7 @@ public class CSSLexer extends Lexer {
 		token.type   = tkComment;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isIllegalLineEnd(char c) {
@@ -142,6 +142,11 @@ public class CSSLexer extends Lexer {
 		token.length = 1;
 		token.type   = tkBrace;
 		addToken(token);
+		if (isLeft) {
+			openFold(offset);
+		} else {
+			closeFold(offset);
+		}
 	}
 	
 	private static HashSet<Character> symbolSet;
@@ -219,7 +224,8 @@ public class CSSLexer extends Lexer {
 		commentTk.end = offset();
 		addMultiCommentToken(commentTk);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
+		addFoldToken(new FoldToken(offset, offset()-1));
 	}
 	
 	@Override
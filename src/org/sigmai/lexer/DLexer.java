@@ -136,7 +136,7 @@ public class DLexer extends JavaLexer {
 		mcToken.end = offset();
 		addMultiCommentToken(mcToken);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	@Override
@@ -399,7 +399,7 @@ public class HTMLLexer extends Lexer {
 		token.type = TK_HTML_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isCommentStart(char c, char d, char e, char f) {
@@ -0,0 +1,125 @@
+package org.sigmai.lexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 标识符索引.
+ *
+ * 索引记录文本中每个单词(由 Unicode 字母, 数字以及 '_' 组成的最长连续串)出现的位置,
+ * 用于整词查找: 一个整词匹配就是一个与查找串相等的单词, 所以查找只需一次索引访问.
+ * <br>
+ * 单词的定义与 SigmaI 整词查找的边界判断一致.
+ * */
+public class IdentifierIndex {
+	
+	private static final int[] EMPTY = new int[0];
+	
+	private static class Offsets {
+		int[] data = new int[2];
+		int   size;
+		
+		void add(int offset) {
+			if (size == data.length) {
+				data = Arrays.copyOf(data, size<<1);
+			}
+			data[size++] = offset;
+		}
+		
+		int[] toArray() {
+			return size==data.length ? data : Arrays.copyOf(data, size);
+		}
+	}
+	
+	private HashMap<String, int[]> exact;
+	private HashMap<String, int[]> ignoreCase;
+	
+	IdentifierIndex(String text) {
+		HashMap<String, Offsets> words = new HashMap<>();
+		int len = text.length();
+		int index = 0;
+		while (index < len) {
+			if (isWordPart(text.charAt(index))) {
+				int start = index;
+				index++;
+				while (index<len && isWordPart(text.charAt(index))) {
+					index++;
+				}
+				words.computeIfAbsent(text.substring(start, index), k->new Offsets()).add(start);
+			} else {
+				index++;
+			}
+		}
+		exact = new HashMap<>(words.size()*4/3+1);
+		for (var entry : words.entrySet()) {
+			exact.put(entry.getKey(), entry.getValue().toArray());
+		}
+	}
+	
+	/**
+	 * 判断字符是否是单词的一部分.
+	 *
+	 * @param c 字符.
+	 * @return 结果.
+	 * */
+	public static boolean isWordPart(char c) {
+		return Character.isLetterOrDigit(c) || c=='_';
+	}
+	
+	/**
+	 * 判断字符串是否是一个单词.
+	 *
+	 * 只有单词才能使用本索引查找.
+	 *
+	 * @param word 字符串.
+	 * @return 结果.
+	 * */
+	public static boolean isWord(String word) {
+		if (word.isEmpty()) return false;
+		for (int i=0; i<word.length(); i++) {
+			if (!isWordPart(word.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 获取单词出现的位置.
+	 *
+	 * 返回的数组按升序排列, 调用者不能修改它.
+	 *
+	 * @param word 单词.
+	 * @param caseSensitive 区分大小写选项.
+	 * @return 位置数组, 如果 word 没有出现, 返回空数组.
+	 * */
+	public int[] getOffsets(String word, boolean caseSensitive) {
+		int[] offsets;
+		if (caseSensitive) {
+			offsets = exact.get(word);
+		} else {
+			offsets = getIgnoreCaseMap().get(word.toLowerCase());
+		}
+		return offsets==null ? EMPTY : offsets;
+	}
+	
+	private HashMap<String, int[]> getIgnoreCaseMap() {
+		if (ignoreCase == null) {
+			HashMap<String, Offsets> words = new HashMap<>();
+			for (var entry : exact.entrySet()) {
+				Offsets offsets = words.computeIfAbsent(
+						entry.getKey().toLowerCase(), k->new Offsets());
+				for (int offset : entry.getValue()) {
+					offsets.add(offset);
+				}
+			}
+			ignoreCase = new HashMap<>(words.size()*4/3+1);
+			for (var entry : words.entrySet()) {
+				int[] offsets = entry.getValue().toArray();
+				Arrays.sort(offsets);
+				ignoreCase.put(entry.getKey(), offsets);
+			}
+		}
+		return ignoreCase;
+	}
+}
@@ -83,7 +83,17 @@ public class IniLexer extends Lexer {
 		advance();
 	}
 
+	/*
+	 * 当前节的开始位置, 节在下一个节头所在行之前结束.
+	 * */
+	private int sectionStart = -1;
+	
 	private void addSectionHead(int offset) {
+		int lineStart = lineStartOf(offset);
+		if (sectionStart >= 0) {
+			addFoldToken(new FoldToken(sectionStart, lineStart));
+		}
+		sectionStart = offset;
 		advance();
 		while (!isEnd() && !isSectionHeadEnd(current())) {
 			advance();
@@ -105,10 +115,18 @@ public class IniLexer extends Lexer {
 		return c=='\r'||c=='\n'||c==']';
 	}
 
+	@Override
+	protected void finish() {
+		if (sectionStart >= 0) {
+			addFoldToken(new FoldToken(sectionStart, getText().length()));
+		}
+	}
+	
 	@Override
 	protected void reset() {
 		super.reset();
 		isEquLeftPart = true;
+		sectionStart  = -1;
 	}
 
 	private boolean isSectionHead(char c) {
@@ -32,7 +32,7 @@ public class JSPLexer extends HTMLLexer {
 		token.type = TK_HTML_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isJspComment(char c, char d, char e, char f) {
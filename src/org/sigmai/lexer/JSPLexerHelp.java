@@ -32,7 +32,7 @@ class JSPLexerHelp extends JavaLexer {
 		addToken(token);
 		//System.out.println(offset());
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isComment1(char c, char d, char e, char f) {
@@ -62,7 +62,7 @@ class JSPLexerHelp extends JavaLexer {
 		token.type = TK_JAVA_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 	
 	private boolean isEnd0(int need) {
@@ -65,7 +65,7 @@ public class JavaScriptLexer extends JavaLexer {
 		advance();advance();advance();advance();
 		addSingleComment0(offset);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 	
 	@Override
@@ -1,5 +1,6 @@
 package org.sigmai.lexer;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.TreeSet;
 
@@ -129,6 +130,7 @@ public abstract class Lexer {
 		while (!isEnd()) {
 			scan();
 		}
+		finish();
 	}
 	
 	public TreeSet<FoldToken> getFoldTokens() {
@@ -278,6 +280,21 @@ public abstract class Lexer {
 		return text.substring(start, end);
 	}
 	
+	/**
+	 * 获取 offset 所在行的开始位置.
+	 * 
+	 * 方法不检测参数是否越界.
+	 * 
+	 * @param offset 位置.
+	 * @return 行的开始位置.
+	 * */
+	protected int lineStartOf(int offset) {
+		while (offset>0 && text.charAt(offset-1)!='\n' && text.charAt(offset-1)!='\r') {
+			offset--;
+		}
+		return offset;
+	}
+	
 	/**
 	 * 获取当前偏移之后的第 until 个字符.
 	 * 
@@ -336,10 +353,51 @@ public abstract class Lexer {
 		tokens.add(token);
 	}
 	
+	/**
+	 * 添加 FoldToken.
+	 * 
+	 * 添加 FoldToken 到接受者解析的 FoldToken 集合. FoldToken 用于代码折叠,
+	 * 折叠时隐藏 start 所在行与 end 所在行之间的行.
+	 * <br>
+	 * 方法不对参数进行检测.
+	 * 
+	 * @param token.
+	 * @see FoldToken
+	 * */
 	protected void addFoldToken(FoldToken token) {
 		foldTokenSet.add(token);
 	}
 	
+	private int[] foldStack = new int[16];
+	private int   foldDepth;
+	
+	/**
+	 * 开始一个折叠区域.
+	 * 
+	 * 与 closeFold() 配对使用, 如 '{' 与 '}'. 折叠区域可以嵌套.
+	 * 
+	 * @param offset 折叠区域的开始位置.
+	 * */
+	protected void openFold(int offset) {
+		if (foldDepth == foldStack.length) {
+			foldStack = Arrays.copyOf(foldStack, foldDepth<<1);
+		}
+		foldStack[foldDepth++] = offset;
+	}
+	
+	/**
+	 * 结束最近开始的折叠区域.
+	 * 
+	 * 添加对应的 FoldToken. 如果没有未结束的折叠区域, 方法不做任何事.
+	 * 
+	 * @param offset 折叠区域的结束位置.
+	 * */
+	protected void closeFold(int offset) {
+		if (foldDepth > 0) {
+			addFoldToken(new FoldToken(foldStack[--foldDepth], offset));
+		}
+	}
+	
 	private TreeSet<MultiCommentToken> multiCommentTokenSet;
 	
 	/**
@@ -371,6 +429,21 @@ public abstract class Lexer {
 		rangeTokenSet.add(new RangeToken(start, end));
 	}
 	
+	/**
+	 * 添加指定种类的 RangeToken.
+	 * 
+	 * 种类用于区分字符串, 注释以及其它范围(如宏), 见 RangeToken.KIND_*.
+	 * <br>
+	 * 方法不对参数进行检测.
+	 * 
+	 * @param start 范围开始, 包括.
+	 * @param end 范围结束, 包括.
+	 * @param kind 范围种类.
+	 * */
+	protected void addRange(int start, int end, int kind) {
+		rangeTokenSet.add(new RangeToken(start, end, kind));
+	}
+	
 	private TreeSet<String> wordList = new TreeSet<String>();
 	
 	/**
@@ -415,6 +488,151 @@ public abstract class Lexer {
 		return rangeTokenSet;
 	}
 	
+	private IdentifierIndex identifierIndex;
+	
+	/**
+	 * 获取标识符索引.
+	 * 
+	 * 索引对应最近一次解析的文本, 在第一次请求时建立, 下一次解析时失效.
+	 * 
+	 * @return 标识符索引.
+	 * @see IdentifierIndex
+	 * */
+	public IdentifierIndex getIdentifierIndex() {
+		if (identifierIndex == null) {
+			identifierIndex = new IdentifierIndex(text);
+		}
+		return identifierIndex;
+	}
+	
+	private RangeIndex rangeIndex;
+	
+	/**
+	 * 获取 RangeToken 的区间索引.
+	 * 
+	 * 索引对应最近一次解析的结果, 在第一次请求时建立, 下一次解析时失效.
+	 * 
+	 * @return 区间索引, 区间的结束位置为 RangeToken.end+1.
+	 * @see RangeIndex
+	 * */
+	public RangeIndex getRangeIndex() {
+		if (rangeIndex == null) {
+			int[] starts = new int[rangeTokenSet.size()];
+			int[] ends   = new int[starts.length];
+			int i = 0;
+			for (var tk : rangeTokenSet) {
+				starts[i] = tk.start;
+				ends[i]   = tk.end+1;
+				i++;
+			}
+			rangeIndex = new RangeIndex(starts, ends);
+		}
+		return rangeIndex;
+	}
+	
+	private RangeIndex multiCommentIndex;
+	
+	/**
+	 * 获取 MultiCommentToken 的区间索引.
+	 * 
+	 * 索引对应最近一次解析的结果, 在第一次请求时建立, 下一次解析时失效.
+	 * 
+	 * @return 区间索引.
+	 * @see RangeIndex
+	 * */
+	public RangeIndex getMultiCommentIndex() {
+		if (multiCommentIndex == null) {
+			int[] starts = new int[multiCommentTokenSet.size()];
+			int[] ends   = new int[starts.length];
+			int i = 0;
+			for (var tk : multiCommentTokenSet) {
+				starts[i] = tk.start;
+				ends[i]   = tk.end;
+				i++;
+			}
+			multiCommentIndex = new RangeIndex(starts, ends);
+		}
+		return multiCommentIndex;
+	}
+	
+	private BracketIndex.Builder bracketBuilder = new BracketIndex.Builder();
+	
+	/*
+	 * 当前位置所在的 { [ ( 的嵌套深度.
+	 * */
+	private int nestDepth;
+	private BracketIndex bracketIndex;
+	
+	/**
+	 * 判断当前 Lexer 是否在解析时记录括号.
+	 * 
+	 * 记录括号的子类需复写此方法, 返回真. 否则 SigmaI 通过逐字符扫描匹配括号.
+	 * 此方法默认返回假.
+	 * 
+	 * @return 结果.
+	 * @see #addBracket(int, char)
+	 * */
+	public boolean isSupportBracketPair() {
+		return false;
+	}
+	
+	/**
+	 * 记录括号.
+	 * 
+	 * 子类在解析到代码中(字符串, 注释之外)的括号 { } [ ] ( ) < > 时调用此方法, 括号在记录时即被配对.
+	 * 括号必须按位置顺序记录, 不是括号的字符被忽略.
+	 * <br>
+	 * 方法同时返回括号的嵌套深度, 子类可以把它保存在括号的 Token.depth 中, 用于按深度着色.
+	 * 嵌套深度只计算 { [ (, 因为 < > 通常是比较运算符.
+	 * 
+	 * @param offset 括号的位置.
+	 * @param c 括号.
+	 * @return 括号的嵌套深度, 最外层为 0. 配对的左右括号深度相同. 如果 c 不是 { } [ ] ( ), 返回 -1.
+	 * */
+	protected int addBracket(int offset, char c) {
+		bracketBuilder.add(offset, c);
+		int kind = BracketIndex.kindOf(c);
+		if (kind<0 || kind==BracketIndex.KIND_ANGLE) {
+			return -1;
+		}
+		if (BracketIndex.OPENS.indexOf(c) >= 0) {
+			return nestDepth++;
+		}
+		if (nestDepth > 0) {
+			nestDepth--;
+		}
+		return nestDepth;
+	}
+	
+	/**
+	 * 获取括号配对表.
+	 * 
+	 * 配对表对应最近一次解析的结果, 下一次解析时失效.
+	 * 
+	 * @return 括号配对表.
+	 * @see BracketIndex
+	 * */
+	public BracketIndex getBracketIndex() {
+		if (bracketIndex == null) {
+			bracketIndex = bracketBuilder.build();
+		}
+		return bracketIndex;
+	}
+	
+	/**
+	 * 获取包含指定位置的 RangeToken.
+	 * 
+	 * @param offset 位置.
+	 * @return 包含 offset 的 RangeToken, 如果不存在, 返回 null.
+	 * */
+	public RangeToken getRangeTokenAt(int offset) {
+		RangeToken tk = rangeTokenSet.floor(new RangeToken(offset, offset));
+		if (tk!=null && offset<=tk.end) {
+			return tk;
+		}
+		return null;
+	}
+	
 	/**
 	 * 解析.
 	 * 
@@ -422,6 +640,15 @@ public abstract class Lexer {
 	 * */
 	protected abstract void scan();
 	
+	/**
+	 * 结束解析.
+	 * 
+	 * 此方法在解析完全部文本之后调用, 子类可复写此方法, 结束到文本结尾才结束的 Token, 如折叠区域.
+	 * 此方法默认不做任何事.
+	 * */
+	protected void finish() {
+	}
+	
 	/**
 	 * 重置状态.
 	 * 
@@ -429,6 +656,13 @@ public abstract class Lexer {
 	 * 子类可按需复用或复写此方法.
 	 * */
 	protected void reset() {
+		identifierIndex   = null;
+		rangeIndex        = null;
+		multiCommentIndex = null;
+		bracketIndex      = null;
+		bracketBuilder.clear();
+		nestDepth = 0;
+		foldDepth = 0;
 		tokens.clear();
 		wordList.clear();
 		multiCommentTokenSet.clear();
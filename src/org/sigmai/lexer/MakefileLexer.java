@@ -26,6 +26,14 @@ public class MakefileLexer extends Lexer {
 	
 	private boolean isNewLine;
 	
+	/*
+	 * 规则折叠: 规则从目标所在行开始, 到最后一个命令行之后的下一行的开头结束.
+	 * 下一个非命令行(目标, 变量或条件语句)结束当前规则.
+	 * */
+	private int     ruleStart = -1;
+	private int     ruleEnd   = -1;
+	private boolean inRecipe;
+	
 	private static final HashSet<Character> symbolSet;
 	
 	static {
@@ -55,8 +63,13 @@ public class MakefileLexer extends Lexer {
 	protected void scan() {
 		if (!isEnd() && isLineEnd(current())) {
 			isNewLine = true;  filterNewLine();
+			if (inRecipe) {
+				ruleEnd  = offset();
+				inRecipe = false;
+			}
 		} else if (!isEnd() && isNewLine && current()=='\t') {
 			isNewLine = false; addRecipe(offset());
+			inRecipe  = ruleStart >= 0;
 		} else if (!isEnd() && isNewLine && current()=='#') {
 			isNewLine = false; addComment(offset());
 		} else if (!isEnd() && isNewLine) {
@@ -102,7 +115,7 @@ public class MakefileLexer extends Lexer {
 		token.type = TK_MF_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 
 	private boolean isCommentEnd(char c) {
@@ -177,6 +190,8 @@ public class MakefileLexer extends Lexer {
 	}
 
 	private void addTargetOrVariable(int offset) {
+		closeRule();
+		markConditional(offset);
 		while (!isEnd() && current()!=':'&&current()!='='
 						&&current()!='?'&&current()!='+'&&!isLineEnd(current())) {
 			if (!isEnd() && isWordStart(current())) {
@@ -200,6 +215,39 @@ public class MakefileLexer extends Lexer {
 		token.start  = offset;
 		token.length = offset() - offset;
 		addToken(token);
+		
+		if (token.type == TK_MF_TARGET) {
+			ruleStart = offset;
+		}
+	}
+	
+	private void closeRule() {
+		if (ruleStart>=0 && ruleEnd>ruleStart) {
+			addFoldToken(new FoldToken(ruleStart, ruleEnd));
+		}
+		ruleStart = -1;
+		ruleEnd   = -1;
+	}
+	
+	/*
+	 * 条件语句 ifeq/ifneq/ifdef/ifndef 与 endif 之间的部分可以折叠, endif 所在行保持可见.
+	 * */
+	private void markConditional(int lineStart) {
+		int length = getText().length();
+		int i = lineStart;
+		while (i<length && charAt(i)==' ') {
+			i++;
+		}
+		int start = i;
+		while (i<length && Character.isLetter(charAt(i))) {
+			i++;
+		}
+		String word = subString(start, i);
+		if (word.equals("ifeq") || word.equals("ifneq") || word.equals("ifdef") || word.equals("ifndef")) {
+			openFold(start);
+		} else if (word.equals("endif")) {
+			closeFold(start);
+		}
 	}
 
 	private void addRecipe(int offset) {
@@ -264,9 +312,21 @@ public class MakefileLexer extends Lexer {
 		return c=='\r' || c=='\n';
 	}
 
+	@Override
+	protected void finish() {
+		if (inRecipe) {
+			ruleEnd  = getText().length();
+			inRecipe = false;
+		}
+		closeRule();
+	}
+	
 	@Override
 	protected void reset() { 
 		super.reset();
 		isNewLine = true;
+		ruleStart = -1;
+		ruleEnd   = -1;
+		inRecipe  = false;
 	}
 }
@@ -1,5 +1,6 @@
 package org.sigmai.lexer;
 
+import java.util.Arrays;
 import java.util.HashSet;
 
 public class PythonLexer extends BaseLexer {
@@ -73,8 +74,28 @@ public class PythonLexer extends BaseLexer {
 		operatorSet.add('/');
 	}
 	
+	/*
+	 * 缩进折叠: 每个代码行是一个块的开头, 块包括之后缩进更深的行.
+	 * 栈中保存仍未结束的块的缩进, 开始位置以及块中是否有缩进更深的行.
+	 * 空行和注释行不影响缩进, 括号中的行以及 '\' 之后的行是上一行的继续.
+	 * */
+	private int[]     blockIndents = new int[16];
+	private int[]     blockStarts  = new int[16];
+	private boolean[] blockBodies  = new boolean[16];
+	private int       blockDepth;
+	private int       bracketDepth;
+	
+	/*
+	 * 最近的代码行之后的下一行的开头, 块在这里结束.
+	 * */
+	private int       codeEnd;
+	private boolean   inCodeLine;
+	
 	@Override
 	protected void scan() {
+		if (isLineStart()) {
+			markLine(offset());
+		}
 		if (!isEnd() && isCommentStart(current())) {
 			addComment(offset());
 		} else if (!isEnd(1) && isRawStringStart(current(), charUntil(1))) {
@@ -126,7 +147,7 @@ public class PythonLexer extends BaseLexer {
 		advance();
 		addSingleComment0(offset);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 	
 	private void addLongString(int offset) {
@@ -155,6 +176,111 @@ public class PythonLexer extends BaseLexer {
 		addToken(token);
 		
 		addRange(offset, offset()-1);
+		addFoldToken(new FoldToken(offset, offset()-1));
+	}
+	
+	private boolean isLineStart() {
+		int i = offset();
+		if (i == 0) {
+			return true;
+		}
+		char prev = charAt(i-1);
+		return prev=='\n' || (prev=='\r' && (isEnd() || current()!='\n'));
+	}
+	
+	/*
+	 * lineStart 是一行的开头, 根据这一行的缩进结束或开始块.
+	 * */
+	private void markLine(int lineStart) {
+		if (inCodeLine) {
+			codeEnd    = lineStart;
+			inCodeLine = false;
+		}
+		if (bracketDepth>0 || isContinued(lineStart)) {
+			inCodeLine = true;
+			return;
+		}
+		
+		String text = getText();
+		int i = lineStart;
+		int indent = 0;
+		while (i<text.length() && (text.charAt(i)==' ' || text.charAt(i)=='\t')) {
+			indent = text.charAt(i)=='\t' ? (indent/8+1)*8 : indent+1;
+			i++;
+		}
+		if (i==text.length() || text.charAt(i)=='\r' || text.charAt(i)=='\n'
+				|| isCommentStart(text.charAt(i))) {
+			return;
+		}
+		
+		while (blockDepth>0 && blockIndents[blockDepth-1]>=indent) {
+			closeBlock();
+		}
+		if (blockDepth > 0) {
+			blockBodies[blockDepth-1] = true;
+		}
+		if (blockDepth == blockIndents.length) {
+			blockIndents = Arrays.copyOf(blockIndents, blockDepth<<1);
+			blockStarts  = Arrays.copyOf(blockStarts, blockDepth<<1);
+			blockBodies  = Arrays.copyOf(blockBodies, blockDepth<<1);
+		}
+		blockIndents[blockDepth] = indent;
+		blockStarts[blockDepth]  = i;
+		blockBodies[blockDepth]  = false;
+		blockDepth++;
+		inCodeLine = true;
+	}
+	
+	/*
+	 * 上一行是否以 '\' 结尾.
+	 * */
+	private boolean isContinued(int lineStart) {
+		int i = lineStart-1;
+		if (i>=0 && charAt(i)=='\n') {
+			i--;
+		}
+		if (i>=0 && charAt(i)=='\r') {
+			i--;
+		}
+		return i>=0 && i<lineStart-1 && charAt(i)=='\\';
+	}
+	
+	private void closeBlock() {
+		blockDepth--;
+		if (blockBodies[blockDepth]) {
+			addFoldToken(new FoldToken(blockStarts[blockDepth], codeEnd));
+		}
+	}
+	
+	@Override
+	protected void addOperator(int offset) {
+		super.addOperator(offset);
+		char c = charAt(offset);
+		if (c=='(' || c=='[' || c=='{') {
+			bracketDepth++;
+		} else if ((c==')' || c==']' || c=='}') && bracketDepth>0) {
+			bracketDepth--;
+		}
+	}
+	
+	@Override
+	protected void finish() {
+		if (inCodeLine) {
+			codeEnd    = getText().length();
+			inCodeLine = false;
+		}
+		while (blockDepth > 0) {
+			closeBlock();
+		}
+	}
+	
+	@Override
+	protected void reset() {
+		super.reset();
+		blockDepth   = 0;
+		bracketDepth = 0;
+		codeEnd      = 0;
+		inCodeLine   = false;
 	}
 	
 	private boolean isRawStringStart(char c, char d) {
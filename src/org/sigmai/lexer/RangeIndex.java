@@ -0,0 +1,97 @@
+package org.sigmai.lexer;
+
+/**
+ * 区间索引.
+ *
+ * 索引保存按开始位置排序的区间 [start, end), 以及每个前缀中最大的结束位置.
+ * 包含 offset 的区间只可能在开始位置不大于 offset 的前缀中, 而这个前缀中有区间包含 offset,
+ * 当且仅当前缀的最大结束位置大于 offset. 所以一次查询只需一次二分查找, 区间可以嵌套或重叠.
+ * <br>
+ * 索引对应最近一次解析的结果, 由 Lexer 在第一次请求时建立, 下一次解析时失效.
+ * */
+public class RangeIndex {
+	
+	private int[] starts;
+	private int[] ends;
+	
+	/*
+	 * widest[i] 是 [0, i] 中结束位置最大的区间的下标.
+	 * */
+	private int[] widest;
+	
+	/*
+	 * starts 必须按升序排列, ends 不包括.
+	 * */
+	RangeIndex(int[] starts, int[] ends) {
+		this.starts = starts;
+		this.ends   = ends;
+		widest = new int[starts.length];
+		for (int i=0; i<starts.length; i++) {
+			widest[i] = i>0 && ends[widest[i-1]]>=ends[i] ? widest[i-1] : i;
+		}
+	}
+	
+	/**
+	 * 获取包含指定位置的区间.
+	 *
+	 * 有多个区间包含 offset 时, 返回结束位置最大的一个.
+	 *
+	 * @param offset 位置.
+	 * @return 区间的下标, 如果不存在, 返回 -1.
+	 * */
+	public int indexOf(int offset) {
+		int lo = 0, hi = starts.length-1, last = -1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (starts[mid] <= offset) {
+				last = mid;
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		if (last>=0 && ends[widest[last]]>offset) {
+			return widest[last];
+		}
+		return -1;
+	}
+	
+	/**
+	 * 判断指定位置是否在某个区间内.
+	 *
+	 * @param offset 位置.
+	 * @return 结果.
+	 * */
+	public boolean contains(int offset) {
+		return indexOf(offset) >= 0;
+	}
+	
+	/**
+	 * 获取区间的开始位置.
+	 *
+	 * @param index 区间的下标.
+	 * @return 开始位置, 包括.
+	 * */
+	public int getStart(int index) {
+		return starts[index];
+	}
+	
+	/**
+	 * 获取区间的结束位置.
+	 *
+	 * @param index 区间的下标.
+	 * @return 结束位置, 不包括.
+	 * */
+	public int getEnd(int index) {
+		return ends[index];
+	}
+	
+	/**
+	 * 获取区间个数.
+	 *
+	 * @return 区间个数.
+	 * */
+	public int size() {
+		return starts.length;
+	}
+}
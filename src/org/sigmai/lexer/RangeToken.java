@@ -1,12 +1,23 @@
 package org.sigmai.lexer;
 
 public class RangeToken implements Comparable<RangeToken> {
+	
+	public static final int KIND_STRING  = 0;
+	public static final int KIND_COMMENT = 1;
+	public static final int KIND_OTHER   = 2;
+	
 	public int start;
 	public int end;
+	public int kind;
 	
 	public RangeToken(int start, int end) {
+		this(start, end, KIND_STRING);
+	}
+	
+	public RangeToken(int start, int end, int kind) {
 		this.start = start;
 		this.end   = end;
+		this.kind  = kind;
 	}
 
 	@Override
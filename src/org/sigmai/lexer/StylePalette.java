@@ -15,6 +15,11 @@ public class StylePalette {
 	private Style[] styles;
 	private static Style defaultStyle;
 	
+	/*
+	 * 按嵌套深度轮流使用的括号样式, 为空时括号使用 Token 类型的样式.
+	 * */
+	private Style[] bracketStyles = new Style[0];
+	
 	static {
 		defaultStyle = new Style();
 		defaultStyle.color = Display.getCurrent().getSystemColor(SWT.COLOR_DARK_GRAY);
@@ -59,4 +64,27 @@ public class StylePalette {
 	public int size() {
 		return styles.length;
 	}
+	
+	public void setBracketStyles(Style[] styles) {
+		if (styles == null) {
+			throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+		}
+		for (Style style : styles) {
+			if (style == null) {
+				throw new SWTError(SWT.ERROR_NULL_ARGUMENT);
+			}
+		}
+		bracketStyles = styles.clone();
+	}
+	
+	public Style getBracketStyle(int depth) {
+		if (depth<0 || bracketStyles.length==0) {
+			return null;
+		}
+		return bracketStyles[depth % bracketStyles.length];
+	}
+	
+	public boolean hasBracketStyles() {
+		return bracketStyles.length > 0;
+	}
 }
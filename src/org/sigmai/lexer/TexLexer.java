@@ -1,5 +1,7 @@
 package org.sigmai.lexer;
 
+import java.util.Arrays;
+
 public class TexLexer extends Lexer {
 
 	public static final int TK_TEX_COMMENT 	= 0;
@@ -54,7 +56,7 @@ public class TexLexer extends Lexer {
 		token.type = TK_TEX_COMMENT;
 		addToken(token);
 		
-		addRange(offset, offset());
+		addRange(offset, offset(), RangeToken.KIND_COMMENT);
 	}
 	
 	private Token collectSplitToken(Token token) {
@@ -203,6 +205,70 @@ public class TexLexer extends Lexer {
 		token.length = offset() - offset;
 		token.type = TK_TEX_COMMAND;
 		addToken(token);
+		
+		markFold(offset, subString(offset+1, offset()));
+	}
+	
+	/*
+	 * 章节命令, 按层次从高到低排列.
+	 * */
+	private static final String[] SECTIONS = {
+		"part", "chapter", "section", "subsection", "subsubsection", "paragraph", "subparagraph"
+	};
+	
+	/*
+	 * 未结束的章节的层次和开始位置. 章节在下一个同层或更高层的章节命令所在行之前结束.
+	 * */
+	private int[] sectionLevels = new int[8];
+	private int[] sectionStarts = new int[8];
+	private int   sectionDepth;
+	
+	/*
+	 * \begin 与 \end 之间的环境按括号的方式折叠, \end 所在行保持可见;
+	 * 章节从章节命令开始折叠, 到下一个章节之前, \end{document} 之前或者文本结尾.
+	 * */
+	private void markFold(int offset, String command) {
+		if (command.equals("begin")) {
+			openFold(offset);
+		} else if (command.equals("end")) {
+			if (getText().startsWith("{document}", offset())) {
+				closeSections(0, lineStartOf(offset));
+			}
+			closeFold(offset);
+		} else {
+			int level = Arrays.asList(SECTIONS).indexOf(command);
+			if (level >= 0) {
+				closeSections(level, lineStartOf(offset));
+				if (sectionDepth == sectionLevels.length) {
+					sectionLevels = Arrays.copyOf(sectionLevels, sectionDepth<<1);
+					sectionStarts = Arrays.copyOf(sectionStarts, sectionDepth<<1);
+				}
+				sectionLevels[sectionDepth] = level;
+				sectionStarts[sectionDepth] = offset;
+				sectionDepth++;
+			}
+		}
+	}
+	
+	/*
+	 * 结束层次不高于 level 的章节.
+	 * */
+	private void closeSections(int level, int end) {
+		while (sectionDepth>0 && sectionLevels[sectionDepth-1]>=level) {
+			sectionDepth--;
+			addFoldToken(new FoldToken(sectionStarts[sectionDepth], end));
+		}
+	}
+	
+	@Override
+	protected void finish() {
+		closeSections(0, getText().length());
+	}
+	
+	@Override
+	protected void reset() {
+		super.reset();
+		sectionDepth = 0;
 	}
 
 	private boolean isCommandPart(char c) {
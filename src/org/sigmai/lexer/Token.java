@@ -7,6 +7,11 @@ public class Token implements Comparable<Token> {
 	public boolean isHighLightWord;
 	public String lexeme;
 	
+	/**
+	 * 括号的嵌套深度, 不是括号时为 -1.
+	 * */
+	public int depth = -1;
+	
 	public Token() {}
 	
 	public Token(int start, int length, int type, 
@@ -26,7 +31,8 @@ public class Token implements Comparable<Token> {
 					&& this.start == other.start
 						&& this.length == other.length
 							&& this.lexeme.equals(lexeme)
-								&& this.isHighLightWord == other.isHighLightWord;
+								&& this.isHighLightWord == other.isHighLightWord
+									&& this.depth == other.depth;
 		} else {
 			return false;
 		}